@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.process.ByteProcessor;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import net.calm.anamorf.params.DefaultParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the image-level kernels of {@link Batch_Analyser} on synthetic
+ * masks: the search of a binary image for objects and their analysis, the
+ * filling of holes in objects and the mapping of curvature along a longest
+ * path. All outputs are measured, with the default parameters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchAnalyserBenchmark {
+
+    private static final long SEED = 1L;
+    private static final int SIZE = 1024, LINE_WIDTH = 3, CURVE_WINDOW = 10;
+
+    @Param({"4", "16"})
+    public int networks;
+
+    private DefaultParams props;
+    private ByteProcessor mask, filled, skeleton;
+    private Batch_Analyser analyser;
+    private ArrayList<int[][]> longestPath;
+
+    @Setup
+    public void setup() {
+        SyntheticHyphae hyphae = new SyntheticHyphae(SEED);
+        hyphae.setLineWidth(LINE_WIDTH);
+        mask = SyntheticHyphae.createImage(SIZE, SIZE);
+        hyphae.drawNetworks(mask, networks);
+        filled = (ByteProcessor) mask.duplicate();
+        props = new DefaultParams();
+        props.setProperty(DefaultParams.CREATE_MASK_LABEL, "false");
+        analyser = new Batch_Analyser(true, null, props);
+        analyser.setOutputs();
+        skeleton = new SkeletonPruner(CURVE_WINDOW, new SyntheticHyphae(SEED).createSkeleton(SIZE, SIZE),
+                null, false, false, true).getPrunedImage();
+        Rectangle bounds = new Rectangle(0, 0, SIZE, SIZE);
+        longestPath = new HyphalAnalyser(skeleton, 1.0, bounds, bounds, false).findLongestPath();
+    }
+
+    /*
+     * A new analyser is used for each search, as the results of each accumulate
+     * in the analyser
+     */
+    @Benchmark
+    public int searchImage() throws Exception {
+        Batch_Analyser search = new Batch_Analyser(true, null, props);
+        search.setOutputs();
+        return search.searchImage(mask, false, null);
+    }
+
+    /*
+     * The filled image is restored from the mask before each fill, which adds
+     * a copy of the pixels to the measurement
+     */
+    @Benchmark
+    public ByteProcessor fill() {
+        System.arraycopy(mask.getPixels(), 0, filled.getPixels(), 0, SIZE * SIZE);
+        analyser.fill(filled, SyntheticHyphae.FOREGROUND, SyntheticHyphae.BACKGROUND);
+        return filled;
+    }
+
+    @Benchmark
+    public double generateCurveMap() {
+        ObjectAnalysis object = new ObjectAnalysis(skeleton, null);
+        return analyser.generateCurveMap(longestPath, object, CURVE_WINDOW);
+    }
+}
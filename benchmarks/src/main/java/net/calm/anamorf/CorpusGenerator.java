@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Generates a corpus of synthetic greyscale micrographs of filamentous
+ * growth, for load-testing AnaMorf. Usage:
+ * <pre>
+ * CorpusGenerator [--&lt;parameter&gt;=&lt;value&gt; ...] &lt;output directory&gt; &lt;images&gt;
+ * </pre> Each image contains a number of branching networks, grown as seeded
+ * random walks by {@link SyntheticHyphae}, and pellets - dense cores with
+ * short hyphae - placed at random. Objects are rendered dark on a light,
+ * unevenly illuminated background, blurred and overlaid with Gaussian noise.
+ * The parameters, with their defaults, are:
+ * <ul>
+ * <li><code>seed</code> (1) - seed of the corpus; each image is generated
+ * from a seed derived from it and the index of the image</li>
+ * <li><code>size</code> (1024) - width and height of each image, in
+ * pixels</li>
+ * <li><code>density</code> (8) - objects per megapixel</li>
+ * <li><code>pellets</code> (0.25) - the fraction of objects that are
+ * pellets</li>
+ * <li><code>pellet-radius</code> (20) - mean radius of the core of a pellet,
+ * in pixels</li>
+ * <li><code>branching</code> (0.05) - the probability that a hyphal tip
+ * branches at each step of its growth</li>
+ * <li><code>hypha-width</code> (3) - width of the hyphae, in pixels</li>
+ * <li><code>background</code> (200) - mean grey level of the background</li>
+ * <li><code>contrast</code> (80) - difference between the grey levels of the
+ * background and the objects</li>
+ * <li><code>gradient</code> (30) - difference in background grey level across
+ * the image, simulating uneven illumination</li>
+ * <li><code>noise</code> (8) - standard deviation of the noise, in grey
+ * levels</li>
+ * </ul>
+ * The parameters are recorded in {@link #MANIFEST} in the output directory,
+ * so that a corpus can be regenerated exactly and runs on different corpora
+ * told apart. The same parameters always produce the same images.
+ */
+public class CorpusGenerator {
+
+    public static final String MANIFEST = "corpus.properties";
+    /*
+     * Incremented whenever a change to the generator alters the images
+     * produced from the same parameters
+     */
+    public static final int FORMAT_VERSION = 1;
+    public static final String SEED = "seed", SIZE = "size", DENSITY = "density", PELLETS = "pellets",
+            PELLET_RADIUS = "pellet-radius", BRANCHING = "branching", HYPHA_WIDTH = "hypha-width",
+            BACKGROUND = "background", CONTRAST = "contrast", GRADIENT = "gradient", NOISE = "noise",
+            IMAGES = "images", VERSION = "format-version";
+    private static final String USAGE = "Usage: CorpusGenerator [--<parameter>=<value> ...] <output directory> <images>\n"
+            + "       parameters: seed, size, density, pellets, pellet-radius, branching, hypha-width, background, contrast, gradient, noise";
+    private static final double BLUR_SIGMA = 1.0;
+    private static final int STEPS = 100, MAX_TIPS = 64;
+
+    private final Properties params = new Properties();
+    private final long seed;
+    private final int size, hyphaWidth;
+    private final double density, pellets, pelletRadius, branching, background, contrast, gradient, noise;
+
+    public static void main(String args[]) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args));
+    }
+
+    /**
+     * @return the exit status - 0 on success, 1 if the corpus could not be
+     * written and 2 if the arguments are invalid
+     */
+    static int run(String args[]) {
+        Properties params = new Properties();
+        int first = 0;
+        File directory;
+        int images;
+        CorpusGenerator generator;
+        try {
+            for (; first < args.length && args[first].startsWith("--"); first++) {
+                int equals = args[first].indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException(String.format("Invalid option: %s", args[first]));
+                }
+                params.setProperty(args[first].substring(2, equals), args[first].substring(equals + 1));
+            }
+            if (args.length - first != 2) {
+                System.err.println(USAGE);
+                return 2;
+            }
+            directory = new File(args[first]);
+            images = Integer.parseInt(args[first + 1]);
+            if (images < 1) {
+                throw new IllegalArgumentException(String.format("Invalid image count: %s", args[first + 1]));
+            }
+            generator = new CorpusGenerator(params);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        try {
+            generator.write(directory, images);
+        } catch (IOException e) {
+            System.err.println(String.format("Could not write corpus to %s: %s", directory, e.getMessage()));
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @param params the generation parameters, as described above; any not
+     * specified take their default values
+     * @throws IllegalArgumentException if a parameter is unknown or its value
+     * is invalid
+     */
+    public CorpusGenerator(Properties params) {
+        this.params.setProperty(SEED, "1");
+        this.params.setProperty(SIZE, "1024");
+        this.params.setProperty(DENSITY, "8");
+        this.params.setProperty(PELLETS, "0.25");
+        this.params.setProperty(PELLET_RADIUS, "20");
+        this.params.setProperty(BRANCHING, "0.05");
+        this.params.setProperty(HYPHA_WIDTH, "3");
+        this.params.setProperty(BACKGROUND, "200");
+        this.params.setProperty(CONTRAST, "80");
+        this.params.setProperty(GRADIENT, "30");
+        this.params.setProperty(NOISE, "8");
+        for (String name : params.stringPropertyNames()) {
+            if (this.params.getProperty(name) == null) {
+                throw new IllegalArgumentException(String.format("Unknown parameter: %s", name));
+            }
+            this.params.setProperty(name, params.getProperty(name).trim());
+        }
+        try {
+            seed = Long.parseLong(this.params.getProperty(SEED));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid value for %s: '%s'", SEED, this.params.getProperty(SEED)));
+        }
+        size = (int) getNumber(SIZE, 16, 65536);
+        density = getNumber(DENSITY, 0, 1000000);
+        pellets = getNumber(PELLETS, 0, 1);
+        pelletRadius = getNumber(PELLET_RADIUS, 1, size / 2);
+        branching = getNumber(BRANCHING, 0, 1);
+        hyphaWidth = (int) getNumber(HYPHA_WIDTH, 1, 100);
+        background = getNumber(BACKGROUND, 0, 255);
+        contrast = getNumber(CONTRAST, -255, 255);
+        gradient = getNumber(GRADIENT, 0, 255);
+        noise = getNumber(NOISE, 0, 255);
+    }
+
+    private double getNumber(String name, double min, double max) {
+        String value = params.getProperty(name);
+        try {
+            double number = Double.parseDouble(value);
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+        }
+        throw new IllegalArgumentException(String.format("Invalid value for %s: '%s'", name, value));
+    }
+
+    /**
+     * Writes <i>images</i> images, named <code>synthetic_00000.png</code>
+     * onwards, and the {@link #MANIFEST} to <i>directory</i>.
+     */
+    public void write(File directory, int images) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Could not create %s", directory));
+        }
+        for (int i = 0; i < images; i++) {
+            String name = String.format("synthetic_%05d", i);
+            /*
+             * FileSaver is used directly, as IJ.saveAs requires ImageJ's
+             * menus, which cannot be created without a display
+             */
+            File file = new File(directory, name + ".png");
+            if (!new FileSaver(new ImagePlus(name, generate(i))).saveAsPng(file.getPath())) {
+                throw new IOException(String.format("Could not write %s", file));
+            }
+        }
+        Properties manifest = new Properties();
+        manifest.putAll(params);
+        manifest.setProperty(IMAGES, String.valueOf(images));
+        manifest.setProperty(VERSION, String.valueOf(FORMAT_VERSION));
+        try (OutputStream out = new FileOutputStream(new File(directory, MANIFEST))) {
+            manifest.store(out, "AnaMorf synthetic corpus");
+        }
+    }
+
+    /**
+     * @return the image at position <i>index</i> of the corpus.
+     */
+    public ByteProcessor generate(int index) {
+        long imageSeed = seed ^ (0x9E3779B97F4A7C15L * (index + 1));
+        SyntheticHyphae hyphae = new SyntheticHyphae(imageSeed);
+        hyphae.setBranchProbability(branching);
+        hyphae.setSteps(STEPS);
+        hyphae.setMaxTips(MAX_TIPS);
+        hyphae.setLineWidth(hyphaWidth);
+        ByteProcessor mask = SyntheticHyphae.createImage(size, size);
+        int objects = (int) Math.round(density * size * size / 1.0e6);
+        for (int i = 0; i < objects; i++) {
+            double x = size * hyphae.nextDouble(), y = size * hyphae.nextDouble();
+            if (hyphae.nextDouble() < pellets) {
+                hyphae.drawPellet(mask, x, y, pelletRadius);
+            } else {
+                hyphae.drawNetwork(mask, x, y);
+            }
+        }
+        return render(mask, new Random(imageSeed));
+    }
+
+    /*
+     * Renders a binary mask of objects as a greyscale micrograph
+     */
+    private ByteProcessor render(ByteProcessor mask, Random random) {
+        byte[] objects = (byte[]) mask.getPixels();
+        float[] grey = new float[size * size];
+        for (int y = 0; y < size; y++) {
+            float level = (float) (background + gradient * ((double) y / size - 0.5));
+            Arrays.fill(grey, y * size, (y + 1) * size, level);
+        }
+        for (int i = 0; i < grey.length; i++) {
+            if ((objects[i] & 0xff) == SyntheticHyphae.FOREGROUND) {
+                grey[i] -= contrast;
+            }
+        }
+        FloatProcessor image = new FloatProcessor(size, size, grey);
+        image.blurGaussian(BLUR_SIGMA);
+        grey = (float[]) image.getPixels();
+        byte[] pixels = new byte[grey.length];
+        for (int i = 0; i < grey.length; i++) {
+            long value = Math.round(grey[i] + noise * random.nextGaussian());
+            pixels[i] = (byte) Math.max(0, Math.min(255, value));
+        }
+        return new ByteProcessor(size, size, pixels);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.process.ByteProcessor;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the analysis of pruned synthetic skeletons by
+ * {@link HyphalAnalyser}. A new analyser is created for each invocation, so
+ * that the walk of the skeleton it caches is included in each measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HyphalAnalyserBenchmark {
+
+    private static final long SEED = 1L;
+    private static final int SIZE = 512, MIN_BRANCH_LENGTH = 10;
+
+    @Param({"0.02", "0.1"})
+    public double branchProbability;
+
+    private ByteProcessor skeleton;
+    private Rectangle bounds;
+
+    @Setup
+    public void setup() {
+        SyntheticHyphae hyphae = new SyntheticHyphae(SEED);
+        hyphae.setBranchProbability(branchProbability);
+        hyphae.setSteps(150);
+        hyphae.setMaxTips(256);
+        skeleton = new SkeletonPruner(MIN_BRANCH_LENGTH, hyphae.createSkeleton(SIZE, SIZE),
+                null, false, false, true).getPrunedImage();
+        bounds = new Rectangle(0, 0, SIZE, SIZE);
+    }
+
+    @Benchmark
+    public double analyse() {
+        HyphalAnalyser analyser = new HyphalAnalyser(skeleton, 1.0, bounds, bounds, false);
+        analyser.analyse();
+        return analyser.getHGU();
+    }
+
+    @Benchmark
+    public ArrayList<int[][]> findLongestPath() {
+        return new HyphalAnalyser(skeleton, 1.0, bounds, bounds, false).findLongestPath();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.process.ByteProcessor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the pruning of synthetic skeletons by {@link SkeletonPruner}, by
+ * repeated scanning of the image and on a graph of the skeleton, for networks
+ * of varying branch density.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SkeletonPrunerBenchmark {
+
+    private static final long SEED = 1L;
+    private static final int SIZE = 512;
+
+    @Param({"0.02", "0.1"})
+    public double branchProbability;
+
+    @Param({"5", "20"})
+    public int minimumLength;
+
+    @Param({"false", "true"})
+    public boolean graphPruning;
+
+    private ByteProcessor skeleton;
+
+    @Setup
+    public void setup() {
+        SyntheticHyphae hyphae = new SyntheticHyphae(SEED);
+        hyphae.setBranchProbability(branchProbability);
+        hyphae.setSteps(150);
+        hyphae.setMaxTips(256);
+        skeleton = hyphae.createSkeleton(SIZE, SIZE);
+    }
+
+    /*
+     * The input image is not modified by the pruner, so may be reused
+     */
+    @Benchmark
+    public ByteProcessor prune() {
+        return new SkeletonPruner(minimumLength, skeleton, null, false, false, graphPruning).getPrunedImage();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import java.awt.Polygon;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Generates reproducible binary images of branching filamentous networks for
+ * use as benchmark inputs. Each network grows from a single origin as a set of
+ * random walks: at every step, each tip advances a fixed distance with its
+ * heading perturbed by a normally-distributed turn, and may branch to create
+ * a new tip. The same seed and parameters always produce the same image.
+ * Networks are drawn in black on a white background, as expected by
+ * {@link Batch_Analyser}.
+ */
+public class SyntheticHyphae {
+
+    public static final int FOREGROUND = 0, BACKGROUND = 255;
+    private static final double STEP = 4.0, TURN = 0.25,
+            MIN_BRANCH_ANGLE = Math.PI / 6.0, MAX_BRANCH_ANGLE = Math.PI / 2.0;
+
+    private final Random random;
+    private double branchProbability = 0.05;
+    private int steps = 100, maxTips = 64, lineWidth = 1;
+
+    /**
+     * @param seed seed of the random walks; generators with the same seed
+     * and parameters draw identical networks
+     */
+    public SyntheticHyphae(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @param branchProbability the probability that a tip branches at each
+     * step, which determines the density of branch-points
+     */
+    public void setBranchProbability(double branchProbability) {
+        this.branchProbability = branchProbability;
+    }
+
+    /**
+     * @param steps the number of steps taken by each tip, which determines
+     * the extent of a network
+     */
+    public void setSteps(int steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * @param maxTips the maximum number of tips in a network, after which no
+     * further branches are created
+     */
+    public void setMaxTips(int maxTips) {
+        this.maxTips = maxTips;
+    }
+
+    /**
+     * @param lineWidth the width, in pixels, of the hyphae
+     */
+    public void setLineWidth(int lineWidth) {
+        this.lineWidth = lineWidth;
+    }
+
+    /**
+     * @return a blank image of the specified size.
+     */
+    public static ByteProcessor createImage(int width, int height) {
+        ByteProcessor image = new ByteProcessor(width, height);
+        image.setValue(BACKGROUND);
+        image.fill();
+        return image;
+    }
+
+    /**
+     * Draws a network growing from (<i>x</i>, <i>y</i>) onto <i>image</i>.
+     * Tips stop growing when they come within one pixel of the edge of the
+     * image, so that networks never touch its border.
+     *
+     * @return the number of tips in the network
+     */
+    public int drawNetwork(ByteProcessor image, double x, double y) {
+        return grow(image, x, y, 2.0 * Math.PI * random.nextDouble(), maxTips);
+    }
+
+    /**
+     * Draws a pellet centred on (<i>x</i>, <i>y</i>) onto <i>image</i>: a
+     * dense, irregular core of the specified mean radius, from the perimeter
+     * of which short, sparsely-branched hyphae grow outwards.
+     */
+    public void drawPellet(ByteProcessor image, double x, double y, double radius) {
+        int vertices = Math.max(8, (int) Math.round(Math.PI * radius / 2.0));
+        int[] xPoints = new int[vertices], yPoints = new int[vertices];
+        double[] headings = new double[vertices];
+        for (int i = 0; i < vertices; i++) {
+            headings[i] = 2.0 * Math.PI * i / vertices;
+            double r = radius * (0.8 + 0.4 * random.nextDouble());
+            xPoints[i] = (int) Math.round(x + r * Math.cos(headings[i]));
+            yPoints[i] = (int) Math.round(y + r * Math.sin(headings[i]));
+        }
+        image.setValue(FOREGROUND);
+        image.fillPolygon(new Polygon(xPoints, yPoints, vertices));
+        for (int i = 0; i < vertices; i++) {
+            if (random.nextBoolean()) {
+                grow(image, xPoints[i], yPoints[i], headings[i], 4);
+            }
+        }
+    }
+
+    /*
+     * Grows a network from a single tip at (x, y) with the specified initial
+     * heading, returning the number of tips.
+     */
+    private int grow(ByteProcessor image, double x, double y, double initialHeading, int maxTips) {
+        int width = image.getWidth(), height = image.getHeight();
+        double margin = 1.0 + lineWidth / 2.0;
+        image.setValue(FOREGROUND);
+        image.setLineWidth(lineWidth);
+        ArrayList<double[]> tips = new ArrayList();
+        tips.add(new double[]{x, y, initialHeading});
+        int count = 1;
+        for (int s = 0; s < steps && !tips.isEmpty(); s++) {
+            ArrayList<double[]> growing = new ArrayList();
+            for (double[] tip : tips) {
+                double heading = tip[2] + TURN * random.nextGaussian();
+                double nx = tip[0] + STEP * Math.cos(heading);
+                double ny = tip[1] + STEP * Math.sin(heading);
+                if (nx < margin || ny < margin || nx >= width - margin || ny >= height - margin) {
+                    continue;
+                }
+                image.drawLine((int) Math.round(tip[0]), (int) Math.round(tip[1]),
+                        (int) Math.round(nx), (int) Math.round(ny));
+                growing.add(new double[]{nx, ny, heading});
+                if (count < maxTips && random.nextDouble() < branchProbability) {
+                    double angle = MIN_BRANCH_ANGLE + (MAX_BRANCH_ANGLE - MIN_BRANCH_ANGLE) * random.nextDouble();
+                    growing.add(new double[]{nx, ny, random.nextBoolean() ? heading + angle : heading - angle});
+                    count++;
+                }
+            }
+            tips = growing;
+        }
+        return count;
+    }
+
+    /**
+     * Draws <i>count</i> networks with origins distributed at random over
+     * <i>image</i>.
+     */
+    public void drawNetworks(ByteProcessor image, int count) {
+        for (int i = 0; i < count; i++) {
+            drawNetwork(image, image.getWidth() * nextDouble(), image.getHeight() * nextDouble());
+        }
+    }
+
+    /**
+     * @return a uniformly-distributed random number in [0, 1) from the
+     * sequence of this generator, for placing objects reproducibly.
+     */
+    public double nextDouble() {
+        return random.nextDouble();
+    }
+
+    /**
+     * @return the skeleton of a single network grown from the centre of an
+     * image of the specified size.
+     */
+    public ByteProcessor createSkeleton(int width, int height) {
+        ByteProcessor image = createImage(width, height);
+        drawNetwork(image, width / 2.0, height / 2.0);
+        /*
+         * As in Batch_Analyser, objects are black on a white background
+         */
+        Prefs.blackBackground = false;
+        image.skeletonize();
+        return image;
+    }
+}
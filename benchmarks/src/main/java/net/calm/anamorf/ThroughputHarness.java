@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.TreeSet;
+import net.calm.anamorf.params.DefaultParams;
+import net.calm.iaclasslibrary.IO.PropertyWriter;
+
+/**
+ * Drives {@link Batch_Analyser} over a corpus of images, such as one written
+ * by {@link CorpusGenerator}, and reports its end-to-end throughput. Usage:
+ * <pre>
+ * ThroughputHarness [--runs=&lt;n&gt;] [--warmup=&lt;n&gt;] [--properties=&lt;file&gt;] &lt;corpus directory&gt; &lt;output directory&gt; &lt;threads&gt;
+ * </pre> The corpus is analysed <code>warmup</code> times (default 1), to
+ * allow the JIT compiler to settle, and then <code>runs</code> times (default
+ * 3), each into its own subdirectory of the output directory. For each
+ * measured run, the number of images and objects analysed per second, the
+ * peak heap usage and the total time spent in each stage of the analysis are
+ * reported. Parameters are read from the properties file, if given, and
+ * otherwise take their default values.
+ * <p>
+ * So that runs can be compared across versions and machines, the report is
+ * also written to {@link #REPORT} in the output directory, together with the
+ * Java runtime, the processors and heap available, the version of AnaMorf and
+ * the {@link CorpusGenerator#MANIFEST} of the corpus, if it has one.
+ */
+public class ThroughputHarness {
+
+    public static final String REPORT = "throughput.json";
+    private static final String USAGE = "Usage: ThroughputHarness [--runs=<n>] [--warmup=<n>] [--properties=<file>] <corpus directory> <output directory> <threads>";
+    private static final String POM_PROPERTIES = "/META-INF/maven/net.calm/anamorf/pom.properties";
+    private static final String RUNS = "--runs=", WARMUP = "--warmup=", PROPERTIES = "--properties=";
+
+    private final File corpus;
+    private final Properties props;
+    private final int threads;
+
+    /**
+     * The outcome of a single analysis of the corpus
+     */
+    static class Run {
+
+        boolean success;
+        double elapsedSeconds;
+        long images, failed, objectsFound, objectsAnalysed, peakHeapBytes;
+        final double[] stageSeconds = new double[MetricsRegistry.Stage.values().length];
+
+        double getImagesPerSecond() {
+            return images / elapsedSeconds;
+        }
+
+        double getObjectsPerSecond() {
+            return objectsAnalysed / elapsedSeconds;
+        }
+    }
+
+    public static void main(String args[]) {
+        System.setProperty("java.awt.headless", "true");
+        int status = run(args);
+        AnalysisLog.flush();
+        System.exit(status);
+    }
+
+    /**
+     * @return the exit status - 0 on success, 1 if any run failed or any
+     * image could not be analysed and 2 if the arguments are invalid
+     */
+    static int run(String args[]) {
+        int runs = 3, warmup = 1;
+        File propertiesFile = null;
+        int first = 0;
+        try {
+            for (; first < args.length && args[first].startsWith("--"); first++) {
+                if (args[first].startsWith(RUNS)) {
+                    runs = Integer.parseInt(args[first].substring(RUNS.length()));
+                } else if (args[first].startsWith(WARMUP)) {
+                    warmup = Integer.parseInt(args[first].substring(WARMUP.length()));
+                } else if (args[first].startsWith(PROPERTIES)) {
+                    propertiesFile = new File(args[first].substring(PROPERTIES.length()));
+                } else {
+                    throw new IllegalArgumentException(String.format("Unknown option: %s", args[first]));
+                }
+            }
+            if (runs < 1 || warmup < 0) {
+                throw new IllegalArgumentException("At least one run is required.");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+        if (args.length != 3) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        int threads;
+        try {
+            threads = Integer.parseInt(args[2]);
+        } catch (NumberFormatException e) {
+            threads = 0;
+        }
+        if (threads < 1) {
+            System.err.println(String.format("Invalid thread count: %s", args[2]));
+            System.err.println(USAGE);
+            return 2;
+        }
+        DefaultParams props = new DefaultParams();
+        if (propertiesFile != null) {
+            try {
+                PropertyWriter.loadProperties(props, null, propertiesFile);
+            } catch (Exception e) {
+                System.err.println(String.format("Failed to load AnaMorf properties file %s: %s", propertiesFile, e.getMessage()));
+                return 2;
+            }
+        }
+        ThroughputHarness harness = new ThroughputHarness(new File(args[0]), props, threads);
+        File outputDirectory = new File(args[1]);
+        boolean success = true;
+        for (int i = 0; i < warmup; i++) {
+            System.out.println(String.format("Warm-up %d of %d...", i + 1, warmup));
+            success &= harness.analyse(new File(outputDirectory, String.format("warmup-%d", i))).success;
+        }
+        ArrayList<Run> results = new ArrayList();
+        for (int i = 0; i < runs; i++) {
+            Run result = harness.analyse(new File(outputDirectory, String.format("run-%d", i)));
+            System.out.println(String.format("Run %d of %d: %d image(s), %d failed, %.3f images/s, %.1f objects/s, peak heap %.1f MB, %.3f s",
+                    i + 1, runs, result.images, result.failed, result.getImagesPerSecond(), result.getObjectsPerSecond(),
+                    result.peakHeapBytes / 1048576.0, result.elapsedSeconds));
+            success &= result.success;
+            results.add(result);
+        }
+        printStages(results);
+        try {
+            harness.writeReport(new File(outputDirectory, REPORT), warmup, results);
+        } catch (IOException e) {
+            System.err.println(String.format("Could not write %s: %s", REPORT, e.getMessage()));
+            return 1;
+        }
+        return success ? 0 : 1;
+    }
+
+    /**
+     * @param corpus the directory of images to be analysed
+     * @param props the parameters of the analysis
+     * @param threads the number of threads used by the analysis
+     */
+    public ThroughputHarness(File corpus, Properties props, int threads) {
+        this.corpus = corpus;
+        this.props = props;
+        this.threads = threads;
+    }
+
+    /**
+     * Analyses the corpus once, writing the results to
+     * <i>resultsDirectory</i>.
+     */
+    Run analyse(File resultsDirectory) {
+        DefaultParams runProps = new DefaultParams();
+        runProps.putAll(props);
+        runProps.setProperty(DefaultParams.THREADS_LABEL, String.valueOf(threads));
+        Batch_Analyser analyser = new Batch_Analyser(true, corpus, runProps);
+        /*
+         * Collect the garbage of the previous run, so that it does not
+         * contribute to the peak heap usage of this one
+         */
+        System.gc();
+        ArrayList<MemoryPoolMXBean> heapPools = new ArrayList();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        Run run = new Run();
+        long start = System.nanoTime();
+        run.success = analyser.runHeadless(resultsDirectory);
+        run.elapsedSeconds = (System.nanoTime() - start) / 1.0e9;
+        /*
+         * The pools do not necessarily peak at the same time, so their sum is
+         * an upper bound on the peak usage of the heap
+         */
+        for (MemoryPoolMXBean pool : heapPools) {
+            run.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        MetricsRegistry metrics = analyser.getMetrics();
+        if (metrics != null) {
+            run.images = metrics.getCount(MetricsRegistry.Counter.IMAGES_ANALYSED);
+            run.failed = metrics.getCount(MetricsRegistry.Counter.IMAGES_FAILED);
+            run.objectsFound = metrics.getCount(MetricsRegistry.Counter.OBJECTS_FOUND);
+            run.objectsAnalysed = metrics.getCount(MetricsRegistry.Counter.OBJECTS_ANALYSED);
+            for (MetricsRegistry.Stage stage : MetricsRegistry.Stage.values()) {
+                run.stageSeconds[stage.ordinal()] = metrics.getTotalSeconds(stage);
+            }
+        }
+        /*
+         * The throughput of a run in which images failed is not comparable
+         * with that of a complete run
+         */
+        if (run.failed > 0) {
+            AnalysisLog.warn("%d image(s) could not be analysed.", run.failed);
+            run.success = false;
+        }
+        return run;
+    }
+
+    /*
+     * Prints the mean time spent in each stage over all runs, summed over
+     * all threads
+     */
+    private static void printStages(ArrayList<Run> results) {
+        System.out.println("Stage                 Seconds (all threads, mean of runs)");
+        for (MetricsRegistry.Stage stage : MetricsRegistry.Stage.values()) {
+            double sum = 0.0;
+            for (Run result : results) {
+                sum += result.stageSeconds[stage.ordinal()];
+            }
+            System.out.println(String.format("%-21s %.3f", stage.id, sum / results.size()));
+        }
+    }
+
+    void writeReport(File file, int warmup, ArrayList<Run> results) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Runtime runtime = Runtime.getRuntime();
+        sb.append("{\n  \"environment\": {\n    \"anamorfVersion\": ");
+        NdjsonResultSink.appendString(sb, getVersion());
+        String[] systemProperties = {"java.version", "java.vm.name", "os.name", "os.arch"};
+        for (String name : systemProperties) {
+            sb.append(",\n    ");
+            NdjsonResultSink.appendString(sb, name);
+            sb.append(": ");
+            NdjsonResultSink.appendString(sb, System.getProperty(name));
+        }
+        sb.append(",\n    \"processors\": ").append(runtime.availableProcessors());
+        sb.append(",\n    \"maxHeapBytes\": ").append(runtime.maxMemory());
+        sb.append("\n  },\n  \"corpus\": {\n    \"directory\": ");
+        NdjsonResultSink.appendString(sb, corpus.getAbsolutePath());
+        Properties manifest = readManifest();
+        for (String name : new TreeSet<String>(manifest.stringPropertyNames())) {
+            sb.append(",\n    ");
+            NdjsonResultSink.appendString(sb, name);
+            sb.append(": ");
+            NdjsonResultSink.appendString(sb, manifest.getProperty(name));
+        }
+        sb.append("\n  },\n  \"threads\": ").append(threads);
+        sb.append(",\n  \"warmupRuns\": ").append(warmup);
+        sb.append(",\n  \"runs\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Run run = results.get(i);
+            sb.append(i > 0 ? "," : "").append("\n    {\"success\": ").append(run.success)
+                    .append(", \"elapsedSeconds\": ").append(run.elapsedSeconds)
+                    .append(", \"images\": ").append(run.images)
+                    .append(", \"imagesFailed\": ").append(run.failed)
+                    .append(", \"objectsFound\": ").append(run.objectsFound)
+                    .append(", \"objectsAnalysed\": ").append(run.objectsAnalysed)
+                    .append(", \"imagesPerSecond\": ").append(run.getImagesPerSecond())
+                    .append(", \"objectsPerSecond\": ").append(run.getObjectsPerSecond())
+                    .append(", \"peakHeapBytes\": ").append(run.peakHeapBytes)
+                    .append(", \"stageSeconds\": {");
+            for (MetricsRegistry.Stage stage : MetricsRegistry.Stage.values()) {
+                sb.append(stage.ordinal() > 0 ? ", " : "").append('"').append(stage.id).append("\": ")
+                        .append(run.stageSeconds[stage.ordinal()]);
+            }
+            sb.append("}}");
+        }
+        sb.append("\n  ]\n}\n");
+        file.getParentFile().mkdirs();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write(sb.toString());
+        }
+    }
+
+    /*
+     * Returns the version of the plug-in being measured. The manifest of the
+     * plug-in is not kept in the benchmarks jar, so the version is read from
+     * the Maven metadata packaged with it if necessary.
+     */
+    private static String getVersion() {
+        String version = Batch_Analyser.class.getPackage().getImplementationVersion();
+        if (version != null) {
+            return version;
+        }
+        Properties pom = new Properties();
+        try (InputStream in = Batch_Analyser.class.getResourceAsStream(POM_PROPERTIES)) {
+            if (in != null) {
+                pom.load(in);
+            }
+        } catch (IOException e) {
+            AnalysisLog.warn("Could not read %s.", POM_PROPERTIES);
+        }
+        return pom.getProperty("version", "unknown");
+    }
+
+    /*
+     * Returns the manifest of the corpus, or an empty set of properties if it
+     * was not written by CorpusGenerator
+     */
+    private Properties readManifest() {
+        Properties manifest = new Properties();
+        File file = new File(corpus, CorpusGenerator.MANIFEST);
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                manifest.load(in);
+            } catch (IOException e) {
+                AnalysisLog.warn("Could not read %s.", file);
+            }
+        }
+        return manifest;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import net.calm.anamorf.params.AnalysisConfig;
+import net.calm.anamorf.params.DefaultParams;
+import net.calm.iaclasslibrary.IO.PropertyWriter;
+
+/**
+ * Command-line entry point for running AnaMorf without a display. Usage:
+ * <pre>
+ * AnaMorfCLI [--resume] [--watch] &lt;input directory&gt; &lt;properties file&gt; &lt;threads&gt; &lt;output directory&gt;
+ * </pre> The properties file is in the format saved by {@link PropertyWriter}
+ * at the end of every run. Results are written to results.csv in the output
+ * directory as images are analysed. With <code>--resume</code>, images
+ * recorded as complete in the {@link BatchJournal} of a previous run in the
+ * same output directory are not analysed again. With <code>--watch</code>,
+ * the input directory is watched for new images until the process is
+ * terminated. With <code>--log-level=DEBUG</code> a line is logged for each
+ * image and with <code>--log-level=TRACE</code> the analysis of each object is
+ * traced; by default only a summary is logged (see {@link AnalysisLog}).
+ * <p>
+ * A batch may be split between several processes sharing the output
+ * directory, each run with <code>--shard=i/n</code> to analyse a fixed
+ * partition of the images, or with <code>--lease=id</code> to claim images as
+ * it reaches them (see {@link Shard}). A leasing shard run with
+ * <code>--reclaim</code> also takes over images leased by shards that stopped
+ * before completing them. Once all shards are complete, their results are
+ * combined with the following, which reports any leased images that were not
+ * completed:
+ * <pre>
+ * AnaMorfCLI --merge &lt;properties file&gt; &lt;output directory&gt;
+ * </pre>
+ */
+public class AnaMorfCLI {
+
+    private static final String USAGE = "Usage: AnaMorfCLI [--resume] [--watch] [--shard=<i>/<n> | --lease=<id> [--reclaim]] [--log-level=<level>] <input directory> <properties file> <threads> <output directory>\n"
+            + "       AnaMorfCLI --merge <properties file> <output directory>";
+    private static final String RESUME = "--resume", WATCH = "--watch", SHARD = "--shard=", LEASE = "--lease=", RECLAIM = "--reclaim",
+            MERGE = "--merge", LOG_LEVEL = "--log-level=";
+
+    public static void main(String args[]) {
+        /*
+         * Must be set before any AWT class is initialised
+         */
+        System.setProperty("java.awt.headless", "true");
+        int status = run(args);
+        AnalysisLog.flush();
+        System.exit(status);
+    }
+
+    /**
+     * @return the exit status - 0 on success, 1 if the analysis failed and 2
+     * if the arguments are invalid
+     */
+    static int run(String args[]) {
+        boolean resume = false, watch = false, merge = false, reclaim = false;
+        Shard shard = null;
+        String leaseId = null, logLevel = null;
+        int first = 0;
+        try {
+            for (; first < args.length && args[first].startsWith("--"); first++) {
+                if (RESUME.equals(args[first])) {
+                    resume = true;
+                } else if (WATCH.equals(args[first])) {
+                    watch = true;
+                } else if (RECLAIM.equals(args[first])) {
+                    reclaim = true;
+                } else if (MERGE.equals(args[first])) {
+                    merge = true;
+                } else if (args[first].startsWith(SHARD)) {
+                    String[] parts = args[first].substring(SHARD.length()).split("/");
+                    if (parts.length != 2) {
+                        throw new IllegalArgumentException(String.format("Invalid shard: %s", args[first]));
+                    }
+                    shard = Shard.partition(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+                    leaseId = null;
+                } else if (args[first].startsWith(LEASE)) {
+                    leaseId = args[first].substring(LEASE.length());
+                } else if (args[first].startsWith(LOG_LEVEL)) {
+                    logLevel = args[first].substring(LOG_LEVEL.length());
+                } else {
+                    throw new IllegalArgumentException(String.format("Unknown option: %s", args[first]));
+                }
+            }
+            if (leaseId != null) {
+                shard = Shard.leasing(leaseId, reclaim);
+            } else if (reclaim) {
+                throw new IllegalArgumentException(String.format("%s requires %s<id>", RECLAIM, LEASE));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+        if (merge) {
+            if (args.length != 2) {
+                System.err.println(USAGE);
+                return 2;
+            }
+            DefaultParams props = loadProperties(new File(args[0]), logLevel);
+            if (props == null) {
+                return 2;
+            }
+            return new Batch_Analyser(true, null, props).mergeShards(new File(args[1])) ? 0 : 1;
+        }
+        if (args.length != 4) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        File inputDirectory = new File(args[0]);
+        File propertiesFile = new File(args[1]);
+        File outputDirectory = new File(args[3]);
+        int threads;
+        try {
+            threads = Integer.parseInt(args[2]);
+        } catch (NumberFormatException e) {
+            threads = 0;
+        }
+        if (threads < 1) {
+            System.err.println(String.format("Invalid thread count: %s", args[2]));
+            System.err.println(USAGE);
+            return 2;
+        }
+        DefaultParams props = loadProperties(propertiesFile, logLevel);
+        if (props == null) {
+            return 2;
+        }
+        props.setProperty(DefaultParams.THREADS_LABEL, String.valueOf(threads));
+        Batch_Analyser ba = new Batch_Analyser(true, inputDirectory, props);
+        ba.setResume(resume);
+        ba.setWatch(watch);
+        ba.setShard(shard);
+        if (watch) {
+            /*
+             * On termination, stop watching and wait for the images already
+             * found to be analysed and their results written
+             */
+            CountDownLatch finished = new CountDownLatch(1);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                ba.stopWatching();
+                try {
+                    finished.await();
+                } catch (InterruptedException e) {
+                }
+            }));
+            try {
+                return ba.runHeadless(outputDirectory) ? 0 : 1;
+            } finally {
+                finished.countDown();
+            }
+        }
+        return ba.runHeadless(outputDirectory) ? 0 : 1;
+    }
+
+    /*
+     * Returns null, after reporting the problem, if the file cannot be read or
+     * contains invalid parameters.
+     */
+    /*
+     * Loads and checks the properties of the run, overriding their log level
+     * with logLevel if it is not null. The level of the log is shared by the
+     * whole process, so it is set here, once, rather than by the analyser.
+     */
+    private static DefaultParams loadProperties(File propertiesFile, String logLevel) {
+        DefaultParams props = new DefaultParams();
+        try {
+            PropertyWriter.loadProperties(props, null, propertiesFile);
+        } catch (Exception e) {
+            System.err.println(String.format("Failed to load AnaMorf properties file %s: %s", propertiesFile, e.getMessage()));
+            return null;
+        }
+        if (logLevel != null) {
+            props.setProperty(DefaultParams.LOG_LEVEL_LABEL, logLevel);
+        }
+        AnalysisConfig config;
+        try {
+            config = AnalysisConfig.compile(props);
+        } catch (IllegalArgumentException e) {
+            System.err.println(String.format("Invalid AnaMorf properties file %s: %s", propertiesFile, e.getMessage()));
+            return null;
+        }
+        AnalysisLog.setLevel(AnalysisLog.Level.valueOf(config.logLevel));
+        return props;
+    }
+}
@@ -95,7 +95,11 @@ public class AnaMorfMacroExecutor implements MacroExtension {
             invalidArguments();
             return;
         }
-        Batch_Analyser.getProps().setProperty(DefaultParams.IMAGE_FORMAT_LABEL, (String) args[0]);
+        Properties props = getProps();
+        if (props == null) {
+            return;
+        }
+        props.setProperty(DefaultParams.IMAGE_FORMAT_LABEL, (String) args[0]);
     }
 
     void setCurvature(Object[] args) {
@@ -103,8 +107,12 @@ public class AnaMorfMacroExecutor implements MacroExtension {
             invalidArguments();
             return;
         }
-        Batch_Analyser.getProps().setProperty(DefaultParams.CURVE_LABEL, "true");
-        Batch_Analyser.getProps().setProperty(DefaultParams.CURVE_WIN_LABEL, String.valueOf(args[0]));
+        Properties props = getProps();
+        if (props == null) {
+            return;
+        }
+        props.setProperty(DefaultParams.CURVE_LABEL, "true");
+        props.setProperty(DefaultParams.CURVE_WIN_LABEL, String.valueOf(args[0]));
     }
 
     void setMinBranchLength(Object[] args) {
@@ -112,25 +120,47 @@ public class AnaMorfMacroExecutor implements MacroExtension {
             invalidArguments();
             return;
         }
-        Batch_Analyser.getProps().setProperty(DefaultParams.MIN_BRANCH_LABEL, String.valueOf(args[0]));
+        Properties props = getProps();
+        if (props == null) {
+            return;
+        }
+        props.setProperty(DefaultParams.MIN_BRANCH_LABEL, String.valueOf(args[0]));
     }
 
     void run() {
+        if (getProps() == null) {
+            return;
+        }
         ba.run(null);
     }
 
     void resetParams(){
-        Properties props = Batch_Analyser.getProps();
-        Batch_Analyser.getProps().setProperty(DefaultParams.BOX_COUNT_LABEL, "false");
-        Batch_Analyser.getProps().setProperty(DefaultParams.CIRC_LABEL, "false");
-        Batch_Analyser.getProps().setProperty(DefaultParams.CURVE_LABEL, "false");
-        Batch_Analyser.getProps().setProperty(DefaultParams.FOURIER_FRAC_LABEL, "false");
-        Batch_Analyser.getProps().setProperty(DefaultParams.LAC_LABEL, "false");
-        Batch_Analyser.getProps().setProperty(DefaultParams.MEAN_BRANCH_LABEL, "false");
-        Batch_Analyser.getProps().setProperty(DefaultParams.NUM_BRANCH_LABEL, "false");
-        Batch_Analyser.getProps().setProperty(DefaultParams.NUM_END_LABEL, "false");
-        Batch_Analyser.getProps().setProperty(DefaultParams.PROJ_AREA_LABEL, "false");
-        Batch_Analyser.getProps().setProperty(DefaultParams.TOT_LENGTH_LABEL, "false");
+        Properties props = getProps();
+        if (props == null) {
+            return;
+        }
+        props.setProperty(DefaultParams.BOX_COUNT_LABEL, "false");
+        props.setProperty(DefaultParams.CIRC_LABEL, "false");
+        props.setProperty(DefaultParams.CURVE_LABEL, "false");
+        props.setProperty(DefaultParams.FOURIER_FRAC_LABEL, "false");
+        props.setProperty(DefaultParams.LAC_LABEL, "false");
+        props.setProperty(DefaultParams.MEAN_BRANCH_LABEL, "false");
+        props.setProperty(DefaultParams.NUM_BRANCH_LABEL, "false");
+        props.setProperty(DefaultParams.NUM_END_LABEL, "false");
+        props.setProperty(DefaultParams.PROJ_AREA_LABEL, "false");
+        props.setProperty(DefaultParams.TOT_LENGTH_LABEL, "false");
+    }
+
+    /*
+     * Returns the parameters of the analyser created by initialiseAnaMorf, or
+     * null, after reporting the problem, if it has not been called.
+     */
+    private Properties getProps() {
+        if (ba == null) {
+            IJ.log(String.format("Error: %s must be called first.", INITIALISE));
+            return null;
+        }
+        return ba.getProps();
     }
 
     void invalidArguments() {
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.IJ;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import net.calm.iaclasslibrary.UtilClasses.GenUtils;
+
+/**
+ * Levelled logging for the analysis, written to ImageJ's log by a single
+ * background thread. Messages below the current level cost no more than a
+ * comparison, and messages that are logged are only formatted by the writer
+ * thread, so analysis threads never wait for formatting or for the Log
+ * window. Messages are queued on a lock-free queue and written in the order
+ * in which they were logged.
+ * <p>
+ * By default only a summary of each run is logged, together with warnings
+ * and errors. {@link Level#DEBUG} adds a line for each image and
+ * {@link Level#TRACE} traces the analysis of every object.
+ */
+public final class AnalysisLog {
+
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG, TRACE
+    }
+
+    /*
+     * Above this many unwritten messages, debug and trace messages are
+     * dropped rather than queued
+     */
+    private static final int MAX_PENDING = 65536;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static volatile Level level = Level.INFO;
+    private static final ConcurrentLinkedQueue<Message> queue = new ConcurrentLinkedQueue();
+    private static final AtomicLong pending = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicBoolean parked = new AtomicBoolean();
+    private static final Thread writer = startWriter();
+
+    private static class Message {
+
+        final Level level;
+        final String format;
+        final Object[] args;
+        final Exception error;
+
+        Message(Level level, Exception error, String format, Object[] args) {
+            this.level = level;
+            this.error = error;
+            this.format = format;
+            this.args = args;
+        }
+
+        String getText() {
+            return args == null || args.length == 0 ? format : String.format(format, args);
+        }
+    }
+
+    private AnalysisLog() {
+    }
+
+    /**
+     * Sets the level of the log, which is shared by every analysis in the
+     * process. It is set once by {@link AnaMorfCLI} at start-up, or by
+     * {@link Batch_Analyser#run(String)} for each run started from ImageJ.
+     */
+    public static void setLevel(Level level) {
+        AnalysisLog.level = level;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return true if messages at <i>messageLevel</i> are currently logged.
+     * Callers need only check this if computing the arguments of a message
+     * is itself expensive.
+     */
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) <= 0;
+    }
+
+    public static void error(Exception error, String format, Object... args) {
+        log(Level.ERROR, error, format, args);
+    }
+
+    public static void warn(String format, Object... args) {
+        log(Level.WARN, null, format, args);
+    }
+
+    public static void info(String format, Object... args) {
+        log(Level.INFO, null, format, args);
+    }
+
+    public static void debug(String format, Object... args) {
+        log(Level.DEBUG, null, format, args);
+    }
+
+    public static void trace(String format, Object... args) {
+        log(Level.TRACE, null, format, args);
+    }
+
+    private static void log(Level messageLevel, Exception error, String format, Object[] args) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        if (messageLevel.compareTo(Level.INFO) > 0 && pending.get() >= MAX_PENDING) {
+            dropped.incrementAndGet();
+            return;
+        }
+        pending.incrementAndGet();
+        queue.offer(new Message(messageLevel, error, format, args));
+        if (parked.get() && parked.compareAndSet(true, false)) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Blocks until every message logged before this call has been written.
+     */
+    public static void flush() {
+        while (pending.get() > 0 && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static Thread startWriter() {
+        Thread thread = new Thread(AnalysisLog::write, "AnaMorf-log");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void write() {
+        while (true) {
+            Message message = queue.poll();
+            if (message == null) {
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    IJ.log(String.format("%d log message(s) dropped", lost));
+                }
+                parked.set(true);
+                /*
+                 * A message queued before the flag was set will not have
+                 * unparked this thread
+                 */
+                if (queue.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                parked.set(false);
+                continue;
+            }
+            try {
+                if (message.level == Level.ERROR) {
+                    GenUtils.logError(message.error, message.getText());
+                } else {
+                    IJ.log(message.getText());
+                }
+            } catch (RuntimeException e) {
+                IJ.log(String.format("Could not log message: %s", e));
+            } finally {
+                pending.decrementAndGet();
+            }
+        }
+    }
+}
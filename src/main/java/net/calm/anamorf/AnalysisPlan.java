@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+/**
+ * Determines which stages of the analysis of an image must be run to produce
+ * the requested outputs. Each requested metric or output image is mapped to
+ * the stage that produces it, and each stage brings in the stages it depends
+ * on, so that only the minimal set of stages is run.
+ */
+public class AnalysisPlan {
+
+    /*
+     * Analysis stages
+     */
+    public static final int MASK = 1,
+            LACUNARITY = 2,
+            SKELETON = 4,
+            LONGEST_PATH = 8,
+            CURVE_MAP = 16,
+            SKELETON_OVERLAY = 32,
+            FOURIER = 64,
+            BOX_COUNT = 128;
+
+    private int stages = 0;
+
+    /**
+     * @param outputData the metrics requested, as a combination of the output
+     * flags defined in {@link Batch_Analyser}
+     * @param createMasks true if mask, skeleton and curve map images are to be
+     * saved
+     * @param wholeImage true if the image is to be analysed as a single object,
+     * which requires the mask of all detected objects
+     */
+    public AnalysisPlan(int outputData, boolean createMasks, boolean wholeImage) {
+        if (createMasks || wholeImage) {
+            require(MASK);
+        }
+        if ((outputData & (Batch_Analyser.HYPHAL_GROWTH_UNIT | Batch_Analyser.NUMBER_OF_ENDPOINTS
+                | Batch_Analyser.TOTAL_HYPHAL_LENGTH | Batch_Analyser.NUMBER_OF_BRANCHES)) != 0) {
+            require(SKELETON);
+        }
+        if ((outputData & Batch_Analyser.LACUNARITY) != 0) {
+            require(LACUNARITY);
+        }
+        if ((outputData & Batch_Analyser.CURVATURE) != 0) {
+            require(LONGEST_PATH);
+        }
+        if ((outputData & Batch_Analyser.FOURIER_FRACTAL_DIMENSION) != 0) {
+            require(FOURIER);
+        }
+        if ((outputData & Batch_Analyser.BOX_FRACTAL_DIMENSION) != 0) {
+            require(BOX_COUNT);
+        }
+        if (createMasks && includes(SKELETON)) {
+            require(SKELETON_OVERLAY);
+        }
+        if (createMasks && includes(LONGEST_PATH)) {
+            require(CURVE_MAP);
+        }
+    }
+
+    /*
+     * Adds a stage to the plan, together with the stages it depends on.
+     */
+    private void require(int stage) {
+        stages |= stage;
+        switch (stage) {
+            case LONGEST_PATH:
+            case SKELETON_OVERLAY:
+                require(SKELETON);
+                break;
+            case CURVE_MAP:
+                require(LONGEST_PATH);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * @return true if <i>stage</i> is to be run.
+     */
+    public boolean includes(int stage) {
+        return (stages & stage) != 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        String[] names = {"mask", "lacunarity", "skeleton", "longest path",
+            "curve map", "skeleton overlay", "fourier", "box-counting"};
+        for (int i = 0; i < names.length; i++) {
+            if (includes(1 << i)) {
+                sb.append(sb.length() > 0 ? ", " : "").append(names[i]);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An append-only record of the images completed during a batch run, held in
+ * the results directory. For each image, the journal records its result rows,
+ * its curvature values and the names of any output images saved, followed by
+ * a completion marker. An image is only considered complete once its marker
+ * has been written, so that a run interrupted at any point can be resumed by
+ * skipping the images already journaled.
+ * <p>
+ * Each record is a single line of tab-separated fields, the first of which
+ * gives the record type and the second the image name.
+ */
+public class BatchJournal implements Closeable {
+
+    public static final String FILENAME = "journal.tsv";
+    private static final String ROW = "R", CURVE = "C", LABELS = "L", OUTPUT = "O", DONE = "D";
+
+    private final File file;
+    private FileOutputStream stream;
+    private Writer writer;
+
+    /**
+     * The outputs of a single image.
+     */
+    public static class Entry {
+
+        public final String image;
+        public final ArrayList<ResultRow> rows = new ArrayList();
+        public ArrayList<ArrayList<Double>> curveStats;
+        public int curveLabels = 0;
+        public final ArrayList<String> outputs = new ArrayList();
+
+        public Entry(String image) {
+            this.image = image;
+        }
+    }
+
+    public BatchJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the journal for writing.
+     *
+     * @param resume if true, the images already recorded in the journal are
+     * returned and new records are appended to them. Otherwise, any existing
+     * journal is discarded.
+     * @return the completed images recorded in the journal, keyed by image
+     * name
+     */
+    public Map<String, Entry> open(boolean resume) throws IOException {
+        Map<String, Entry> completed = new HashMap();
+        if (resume && file.exists()) {
+            long length = read(completed);
+            /*
+             * Discard any partial record left by an interrupted write, so
+             * that the next record starts on a new line
+             */
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length);
+            }
+        }
+        stream = new FileOutputStream(file, resume);
+        writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+        return completed;
+    }
+
+    /**
+     * Reads the journal without opening it for writing.
+     *
+     * @return the completed images recorded in the journal, keyed by image
+     * name
+     */
+    public Map<String, Entry> read() throws IOException {
+        Map<String, Entry> completed = new HashMap();
+        if (file.exists()) {
+            read(completed);
+        }
+        return completed;
+    }
+
+    /*
+     * Reads all complete records, returning the length of the journal up to
+     * the end of the last complete line.
+     */
+    private long read(Map<String, Entry> completed) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] != '\n') {
+            length--;
+        }
+        HashMap<String, Entry> pending = new HashMap();
+        String[] lines = new String(bytes, 0, length, StandardCharsets.UTF_8).split("\n");
+        for (String line : lines) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length < 2) {
+                continue;
+            }
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = unescape(fields[i]);
+            }
+            String image = fields[1];
+            Entry entry = pending.get(image);
+            if (entry == null) {
+                entry = new Entry(image);
+                pending.put(image, entry);
+            }
+            switch (fields[0]) {
+                case ROW:
+                    ResultRow row = new ResultRow(fields[2]);
+                    for (int i = 3; i + 1 < fields.length; i += 2) {
+                        row.addValue(fields[i], Double.parseDouble(fields[i + 1]));
+                    }
+                    entry.rows.add(row);
+                    break;
+                case CURVE:
+                    if (entry.curveStats == null) {
+                        entry.curveStats = new ArrayList();
+                    }
+                    ArrayList<Double> values = new ArrayList();
+                    for (int i = 2; i < fields.length; i++) {
+                        values.add(Double.parseDouble(fields[i]));
+                    }
+                    entry.curveStats.add(values);
+                    break;
+                case LABELS:
+                    entry.curveLabels = Integer.parseInt(fields[2]);
+                    break;
+                case OUTPUT:
+                    entry.outputs.add(fields[2]);
+                    break;
+                case DONE:
+                    completed.put(image, pending.remove(image));
+                    break;
+                default:
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Appends the outputs of an image to the journal and forces them to disk,
+     * so that the image is recorded as complete even if the JVM subsequently
+     * dies. May be called concurrently as images complete.
+     */
+    public synchronized void record(Entry entry) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (ResultRow row : entry.rows) {
+            start(sb, ROW, entry.image).append('\t').append(escape(row.getLabel()));
+            for (Map.Entry<String, Double> value : row.getValues().entrySet()) {
+                sb.append('\t').append(escape(value.getKey())).append('\t').append(value.getValue());
+            }
+            sb.append('\n');
+        }
+        if (entry.curveStats != null) {
+            for (ArrayList<Double> column : entry.curveStats) {
+                start(sb, CURVE, entry.image);
+                for (double value : column) {
+                    sb.append('\t').append(value);
+                }
+                sb.append('\n');
+            }
+            start(sb, LABELS, entry.image).append('\t').append(entry.curveLabels).append('\n');
+        }
+        for (String output : entry.outputs) {
+            start(sb, OUTPUT, entry.image).append('\t').append(escape(output)).append('\n');
+        }
+        start(sb, DONE, entry.image).append('\n');
+        writer.write(sb.toString());
+        writer.flush();
+        stream.getChannel().force(false);
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private StringBuilder start(StringBuilder sb, String type, String image) {
+        return sb.append(type).append('\t').append(escape(image));
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i);
+                switch (c) {
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    default:
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
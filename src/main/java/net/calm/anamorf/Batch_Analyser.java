@@ -16,6 +16,7 @@
  */
 package net.calm.anamorf;
 
+import net.calm.anamorf.params.AnalysisConfig;
 import net.calm.anamorf.params.DefaultParams;
 import Revision.Revision;
 import ij.IJ;
@@ -24,6 +25,7 @@ import ij.Prefs;
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import ij.gui.Wand;
+import ij.io.FileSaver;
 import ij.measure.Measurements;
 import ij.measure.ResultsTable;
 import ij.plugin.PlugIn;
@@ -35,7 +37,6 @@ import ij.process.AutoThresholder;
 import ij.process.Blitter;
 import ij.process.ByteBlitter;
 import ij.process.ByteProcessor;
-import ij.process.ColorBlitter;
 import ij.process.ColorProcessor;
 import ij.process.FloatProcessor;
 import ij.process.FloodFiller;
@@ -46,13 +47,20 @@ import java.awt.Color;
 import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.text.DecimalFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import net.calm.iaclasslibrary.Binary.BinaryMaker;
 import net.calm.iaclasslibrary.Curvature.CurveAnalyser;
@@ -64,10 +72,7 @@ import net.calm.iaclasslibrary.IO.DataWriter;
 import net.calm.iaclasslibrary.IO.PropertyWriter;
 import net.calm.iaclasslibrary.Thresholding.FuzzyThresholder;
 import net.calm.iaclasslibrary.UtilClasses.GenUtils;
-import net.calm.iaclasslibrary.UtilClasses.GenVariables;
 import net.calm.iaclasslibrary.UtilClasses.Utilities;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 
@@ -88,27 +93,52 @@ public class Batch_Analyser implements PlugIn {
     private final double MIN_CIRC = 0.0, MAX_AREA = Double.MAX_VALUE; // Morphological thresholds used during analysis
     private boolean outputResults, useMorphFilters;
     private int outputData = 0; // Determines what metrics will be output to Results Table
+    private AnalysisPlan plan;
     private static final int FOREGROUND = 0, BACKGROUND = 255; // Values for foreground & background pixels
-    private ByteProcessor maskImage, refProc;
-    private ColorProcessor colorSkelImage;
-    private ImageProcessor bwSkelImage;
+    private ByteProcessor maskImage;
+    private ObjectLabeller labeller;
+    private final ArrayList<SkeletonOverlay> skeletonOverlays = new ArrayList();
     private FloatProcessor curveMap;
     private String imageName;
+    private final ArrayList<ResultRow> imageResults = new ArrayList();
     public String title = String.format("AnaMorf v%d.%s", Revision.VERSION, new DecimalFormat("000").format(Revision.revisionNumber));
-    ResultsTable resultsTable;
     private File currentDirectory;
     private DescriptiveStatistics wholeImageCurvature;
     ArrayList<ArrayList<Double>> cumulativeCurveStats;
     ArrayList<String> cumulativeCurveStatsLabels;
-    private static Properties props;
+    private Properties props;
+    private AnalysisConfig config;
+    private static Properties sessionProps; // Parameters last entered in the dialog, offered again on the next run
     private final boolean macroMode;
-
-    static {
-        if (props == null) {
-            IJ.log("Initialising properties...");
-            props = new DefaultParams();
-        }
-    }
+    private boolean headless = false;
+    private final ArrayList<ResultSink> resultSinks = new ArrayList();
+    private final ArrayList<String> outputFiles = new ArrayList();
+    private BatchJournal journal;
+    private Map<String, BatchJournal.Entry> journaled;
+    private boolean resume = false;
+    private boolean watch = false;
+    private int mergedCount = 0;
+    private Shard shard;
+    private volatile boolean stopWatching = false;
+    private static final long WATCH_POLL_INTERVAL = 500; // Milliseconds between checks for new images
+    private static final int MAX_QUEUED_PER_THREAD = 4; // Images awaiting merging per analysis thread
+    private ForkJoinPool objectPool;
+    private volatile ImagePipeline<Batch_Analyser> pipeline;
+    private MemoryBudget memoryBudget;
+    private MetricsRegistry metrics;
+    private MetricsRegistry.ImageTimings timings;
+    /*
+     * Per-image state passed between the stages of the pipeline
+     */
+    private File imageDirectory, resultsDirectory;
+    private int position;
+    private ImagePlus currImage, maskOutput, skelOutput, curveOutput;
+    private ImageProcessor preProcessedImage;
+    private ArrayList<ObjectAnalysis> objects;
+    private FlightEvents.AnalyseImage imageEvent;
+    private int objectCount = 0;
+    private Roi searchRoi;
+    private boolean abandoned = false;
 
     /*
      * Column headings used for Results Table output
@@ -139,6 +169,24 @@ public class Batch_Analyser implements PlugIn {
             LACUNARITY = 256,
             CURVATURE = 512;
 
+    /*
+     * Values of DefaultParams.RESULTS_FORMAT_LABEL
+     */
+    public static final String CSV_FORMAT = "CSV", NDJSON_FORMAT = "NDJSON";
+
+    /*
+     * Stages of the pipeline through which each image passes
+     */
+    static final int DECODE_STAGE = 0,
+            PRE_PROCESS_STAGE = 1,
+            SEGMENT_STAGE = 2,
+            ANALYSE_STAGE = 3,
+            WRITE_STAGE = 4;
+    static final String[] STAGE_NAMES = {"decode", "pre-process", "segment", "analyse", "write"};
+    private static final MetricsRegistry.Stage[] STAGE_METRICS = {MetricsRegistry.Stage.DECODE,
+        MetricsRegistry.Stage.PRE_PROCESS, MetricsRegistry.Stage.SEGMENT, MetricsRegistry.Stage.ANALYSE,
+        MetricsRegistry.Stage.WRITE};
+
 //    public Batch_Analyser(boolean wholeImage) {
 //        this.wholeImage = wholeImage;
 //        noEdge = false;
@@ -150,7 +198,42 @@ public class Batch_Analyser implements PlugIn {
     public Batch_Analyser(boolean macroMode, File currentDirectory, Properties props) {
         this.macroMode = macroMode;
         this.currentDirectory = currentDirectory;
-        Batch_Analyser.props = props;
+        this.props = props;
+    }
+
+    /**
+     * Creates a worker that shares the run configuration of <i>parent</i> but
+     * holds its own per-image state, so that several images can be analysed
+     * concurrently.
+     */
+    private Batch_Analyser(Batch_Analyser parent) {
+        this.macroMode = parent.macroMode;
+        this.currentDirectory = parent.currentDirectory;
+        this.props = parent.props;
+        this.config = parent.config;
+        this.outputData = parent.outputData;
+        this.plan = parent.plan;
+        this.title = parent.title;
+        this.objectPool = parent.objectPool;
+        this.metrics = parent.metrics;
+    }
+
+    /**
+     * Creates a worker holding the results of an image recorded in the
+     * journal of a previous run.
+     */
+    private Batch_Analyser(Batch_Analyser parent, BatchJournal.Entry entry) {
+        this(parent);
+        this.imageName = entry.image;
+        imageResults.addAll(entry.rows);
+        outputFiles.addAll(entry.outputs);
+        if (entry.curveStats != null) {
+            cumulativeCurveStats = entry.curveStats;
+            cumulativeCurveStatsLabels = new ArrayList();
+            for (int i = 0; i < entry.curveLabels; i++) {
+                cumulativeCurveStatsLabels.add(entry.image);
+            }
+        }
     }
 
     /**
@@ -163,60 +246,243 @@ public class Batch_Analyser implements PlugIn {
         if (!macroMode && !showGUI()) {
             return;
         }
-        setOutputs();
+        if (!setOutputs()) {
+            return;
+        }
+        /*
+         * Within ImageJ, each run is started by the user, so it sets the level
+         * of the shared log. Headless runs leave it to the process that starts
+         * them - see AnaMorfCLI.
+         */
+        AnalysisLog.setLevel(AnalysisLog.Level.valueOf(config.logLevel));
         try {
             if (!macroMode) {
                 currentDirectory = Utilities.getFolder(new File(props.getProperty(DefaultParams.INPUT_DIR)), null, true);
             }
         } catch (Exception e) {
-            GenUtils.logError(e, "Could not open directory.");
+            AnalysisLog.error(e, "Could not open directory.");
             return;
         }
         if (currentDirectory == null) {
             return;
         }
-        props.setProperty(DefaultParams.INPUT_DIR, currentDirectory.getAbsolutePath());
-        IJ.log(title);
-        IJ.log(currentDirectory.getAbsolutePath());
-        resultsTable = Analyzer.getResultsTable();
+        getProps().setProperty(DefaultParams.INPUT_DIR, currentDirectory.getAbsolutePath());
+        AnalysisLog.info("%s", title);
+        AnalysisLog.info("%s", currentDirectory.getAbsolutePath());
+        ResultsTable resultsTable = Analyzer.getResultsTable();
         resultsTable.reset();
         resultsTable.incrementCounter();
         resultsTable.addLabel(currentDirectory.getAbsolutePath());
         long startTime = System.currentTimeMillis();
         File resultsDirectory = new File(GenUtils.openResultsDirectory(currentDirectory.getAbsolutePath() + File.separator + title));
-        if (analyseFiles(currentDirectory, resultsDirectory)) {
+        analyseBatch(resultsDirectory, new ResultsTableSink(resultsTable));
+        AnalysisLog.info("\n%s done: %f s", title, ((double) (System.currentTimeMillis() - startTime)) / 1000.0);
+        AnalysisLog.flush();
+    }
+
+    /**
+     * Analyses the images in the current directory without any user
+     * interface. ImageJ's results table is not used - results are only
+     * written to the results file in <i>resultsDirectory</i>.
+     *
+     * @return true if the images were successfully analysed, false otherwise
+     */
+    public boolean runHeadless(File resultsDirectory) {
+        headless = true;
+        Prefs.blackBackground = false;
+        if (!setOutputs()) {
+            return false;
+        }
+        if (currentDirectory == null || !currentDirectory.isDirectory()) {
+            AnalysisLog.warn("'%s' is not a directory.", currentDirectory);
+            return false;
+        }
+        if (!resultsDirectory.isDirectory() && !resultsDirectory.mkdirs()) {
+            AnalysisLog.warn("Could not create '%s'.", resultsDirectory);
+            return false;
+        }
+        getProps().setProperty(DefaultParams.INPUT_DIR, currentDirectory.getAbsolutePath());
+        AnalysisLog.info("%s", title);
+        AnalysisLog.info("%s", currentDirectory.getAbsolutePath());
+        long startTime = System.currentTimeMillis();
+        boolean success = analyseBatch(resultsDirectory, null);
+        AnalysisLog.info("\n%s done: %f s", title, ((double) (System.currentTimeMillis() - startTime)) / 1000.0);
+        AnalysisLog.flush();
+        return success;
+    }
+
+    /**
+     * Analyses the images in the current directory, streaming the results of
+     * each image to the results file, and to <i>view</i> if it is not null, as
+     * soon as that image and all images before it have been analysed.
+     * Curvature values and the properties used are saved at the end.
+     *
+     * @return true if the images were successfully analysed, false otherwise
+     */
+    boolean analyseBatch(File resultsDirectory, ResultSink view) {
+        boolean success = false;
+        mergedCount = 0;
+        metrics = new MetricsRegistry();
+        try {
+            if (view != null) {
+                resultSinks.add(view);
+            }
+            /*
+             * Each shard records its results separately, to be merged once
+             * all shards are complete
+             */
+            File recordDirectory = resultsDirectory;
+            if (shard != null) {
+                recordDirectory = shard.getDirectory(resultsDirectory);
+                recordDirectory.mkdirs();
+                AnalysisLog.info("Analysing as shard %s", shard.getId());
+            }
+            resultSinks.add(openResultSink(recordDirectory, currentDirectory.getAbsolutePath()));
+            journal = new BatchJournal(new File(recordDirectory, BatchJournal.FILENAME));
+            /*
+             * A watched directory may be watched again after a restart
+             * without repeating the analysis of images already found
+             */
+            journaled = journal.open(resume || watch);
+            if (resume || watch) {
+                AnalysisLog.info("Resuming - %d image(s) already analysed", journaled.size());
+            }
+            success = watch ? watchFiles(currentDirectory, resultsDirectory) : analyseFiles(currentDirectory, resultsDirectory);
             try {
-                saveResults(resultsDirectory);
-                if ((outputData & CURVATURE) != 0 && Boolean.parseBoolean(props.getProperty(DefaultParams.OUTPUT_CURVE_LABEL))) {
-                    DataWriter.saveValues(cumulativeCurveStats,
-                            new File(String.format("%s%s%s", resultsDirectory.getAbsolutePath(), File.separator, "CurvatureValues.csv")),
-                            new String[]{"Image", "X", "Y", "Theta 1", "Theta 2"}, cumulativeCurveStatsLabels.toArray(new String[]{}), false);
-                }
+                metrics.write(recordDirectory);
             } catch (IOException e) {
-                GenUtils.logError(e, "Could not save results file.");
+                AnalysisLog.error(e, "Could not save metrics.");
             }
+            if (success) {
+                saveCurvatureValues(recordDirectory);
+            }
+        } catch (IOException e) {
+            AnalysisLog.error(e, "Could not save results file.");
+            success = false;
+        } finally {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    AnalysisLog.error(e, "Could not close batch journal.");
+                }
+                journal = null;
+                journaled = null;
+            }
+            success &= closeResultSinks();
+        }
+        saveProperties(resultsDirectory);
+        return success;
+    }
+
+    /**
+     * Combines the results recorded by the shards of a sharded run in
+     * <i>resultsDirectory</i> into single results and curvature value files in
+     * that directory. Images are written in the order in which an unsharded
+     * run would have written them.
+     *
+     * @return true if the results were successfully merged, false otherwise
+     */
+    public boolean mergeShards(File resultsDirectory) {
+        if (!setOutputs()) {
+            return false;
+        }
+        ArrayList<File> shardDirectories = Shard.findDirectories(resultsDirectory);
+        if (shardDirectories.isEmpty()) {
+            AnalysisLog.warn("No shards found in %s.", resultsDirectory);
+            return false;
         }
+        boolean success = true;
         try {
-            PropertyWriter.saveProperties(props, resultsDirectory.getAbsolutePath(), title, true);
-        } catch (Exception e) {
-            GenUtils.logError(e, "Failed to save property file.");
+            HashMap<String, BatchJournal.Entry> entries = new HashMap();
+            for (File shardDirectory : shardDirectories) {
+                Map<String, BatchJournal.Entry> shardEntries = new BatchJournal(new File(shardDirectory, BatchJournal.FILENAME)).read();
+                AnalysisLog.info("Shard %s: %d image(s)", shardDirectory.getName(), shardEntries.size());
+                entries.putAll(shardEntries);
+            }
+            Map<String, String> unfinished = Shard.findUnfinishedLeases(resultsDirectory, entries.keySet());
+            if (!unfinished.isEmpty()) {
+                AnalysisLog.warn("%d leased image(s) were not completed and will not be merged - resume their shards, or run a shard with --reclaim, to analyse them.", unfinished.size());
+                for (Map.Entry<String, String> lease : unfinished.entrySet()) {
+                    AnalysisLog.info("%s (shard '%s')", lease.getKey(), lease.getValue());
+                }
+            }
+            ArrayList<String> imageNames = new ArrayList(entries.keySet());
+            imageNames.sort(Shard.CANONICAL_ORDER);
+            mergedCount = 0;
+            cumulativeCurveStats = null;
+            cumulativeCurveStatsLabels = null;
+            resultSinks.add(openResultSink(resultsDirectory, getProps().getProperty(DefaultParams.INPUT_DIR, resultsDirectory.getAbsolutePath())));
+            for (String imageName : imageNames) {
+                mergeResults(new Batch_Analyser(this, entries.get(imageName)));
+            }
+            saveCurvatureValues(resultsDirectory);
+            AnalysisLog.info("Merged %d image(s) from %d shard(s)", imageNames.size(), shardDirectories.size());
+        } catch (IOException e) {
+            AnalysisLog.error(e, "Could not merge shards.");
+            success = false;
+        } finally {
+            success &= closeResultSinks();
         }
-        IJ.log(String.format("\n%s done: %f s", title, ((double) (System.currentTimeMillis() - startTime)) / 1000.0));
+        AnalysisLog.flush();
+        return success;
     }
 
-    void saveResults(File resultsDirectory) throws IOException {
-        CSVPrinter printer = new CSVPrinter(new OutputStreamWriter(new FileOutputStream(new File(resultsDirectory + File.separator + "results.csv")), GenVariables.ISO), CSVFormat.EXCEL);
-        printer.printRecord((Object[]) resultsTable.getHeadings());
-        int n = resultsTable.size();
-        int m = resultsTable.getLastColumn();
-        for (int i = 0; i < n; i++) {
-            printer.print(resultsTable.getLabel(i));
-            for (int j = 0; j <= m; j++) {
-                printer.print(resultsTable.getStringValue(j, i));
+    /*
+     * Closes and removes all result sinks, returning false if any could not
+     * be closed.
+     */
+    private boolean closeResultSinks() {
+        boolean closed = true;
+        for (ResultSink sink : resultSinks) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                AnalysisLog.error(e, "Could not save results file.");
+                closed = false;
             }
-            printer.println();
         }
-        printer.close();
+        resultSinks.clear();
+        return closed;
+    }
+
+    /**
+     * Restricts {@link #runHeadless} to the images claimed by <i>shard</i>.
+     * Results are recorded in the shard's own directory, for merging with
+     * {@link #mergeShards}.
+     */
+    public void setShard(Shard shard) {
+        this.shard = shard;
+    }
+
+    /**
+     * @param inputLabel the input directory, recorded ahead of the results in
+     * CSV files
+     * @return a sink writing results to <i>resultsDirectory</i> in the
+     * format specified by {@link DefaultParams#RESULTS_FORMAT_LABEL}.
+     */
+    ResultSink openResultSink(File resultsDirectory, String inputLabel) throws IOException {
+        if (NDJSON_FORMAT.equals(config.resultsFormat)) {
+            return new NdjsonResultSink(new File(resultsDirectory, "results.ndjson"));
+        }
+        return new CsvResultSink(new File(resultsDirectory, "results.csv"), inputLabel);
+    }
+
+    void saveCurvatureValues(File resultsDirectory) throws IOException {
+        if ((outputData & CURVATURE) != 0 && config.outputCurvatureValues
+                && cumulativeCurveStats != null) {
+            DataWriter.saveValues(cumulativeCurveStats,
+                    new File(String.format("%s%s%s", resultsDirectory.getAbsolutePath(), File.separator, "CurvatureValues.csv")),
+                    new String[]{"Image", "X", "Y", "Theta 1", "Theta 2"}, cumulativeCurveStatsLabels.toArray(new String[]{}), false);
+        }
+    }
+
+    void saveProperties(File resultsDirectory) {
+        try {
+            PropertyWriter.saveProperties(getProps(), resultsDirectory.getAbsolutePath(), title, true);
+        } catch (Exception e) {
+            AnalysisLog.error(e, "Failed to save property file.");
+        }
     }
 
     /**
@@ -230,100 +496,589 @@ public class Batch_Analyser implements PlugIn {
      * false otherwise.
      */
     public boolean analyseFiles(File directory, File resultsDirectory) {
-        FilenameFilter directoryFilter = new OnlyExt(props.getProperty(DefaultParams.IMAGE_FORMAT_LABEL));
-        String imageFilenames[] = directory.list(directoryFilter); // Generates a list of image filenames of the format specified by the user
-        if (imageFilenames.length < 1) {
-            IJ.showMessage("'" + directory + "' contains no images of type ." + props.getProperty(DefaultParams.IMAGE_FORMAT_LABEL));
+        ImageWalker images = new ImageWalker(directory, config.recursive,
+                getImageFilter(directory), resultsDirectory);
+        if (!images.hasNext()) {
+            String message = "'" + directory + "' contains no images of type ." + config.imageFormat;
+            if (headless) {
+                AnalysisLog.warn("%s", message);
+            } else {
+                IJ.showMessage(message);
+            }
             return false;
         }
+        int nThreads = config.threads;
+        AnalysisLog.info("Analysing images using %d thread(s)", nThreads);
+        ImagePipeline<Batch_Analyser> pipeline = startPipeline(nThreads);
+        ArrayDeque<Future<Batch_Analyser>> tasks = new ArrayDeque();
+        int count = 0;
         /*
-         * A folder for storing mask images is created if required
+         * Images are submitted as they are enumerated, with a limit on the
+         * number awaiting merging, and results are merged in enumeration
+         * order, regardless of the order in which the images complete, so
+         * that output is identical to a sequential run.
          */
-        for (int i = 0; i < imageFilenames.length; i++) {
-            IJ.showProgress(i, imageFilenames.length);
-            useMorphFilters = true;
-            outputResults = !Boolean.parseBoolean(props.getProperty(DefaultParams.WHOLE_IMAGE_LABEL));
-            imageName = imageFilenames[i];
-            ImagePlus currImage = new ImagePlus(directory + File.separator + imageName);
-            IJ.log(String.format("\nAnalysing image %d of %d - %s", i + 1, imageFilenames.length, currImage.getShortTitle()));
-            try {
-                analyseFile(currImage, resultsDirectory);
-            } catch (Exception e) {
-                GenUtils.logError(e, String.format("Problem analysing %s.", imageName));
+        try {
+            while (images.hasNext()) {
+                String imageName = images.next();
+                if (shard != null && !shard.claim(imageName, resultsDirectory)) {
+                    continue;
+                }
+                tasks.add(submitFile(pipeline, directory, imageName, ++count, resultsDirectory));
+                while (tasks.size() > MAX_QUEUED_PER_THREAD * nThreads || (!tasks.isEmpty() && tasks.peek().isDone())) {
+                    mergeResults(tasks.poll().get());
+                }
+            }
+            pipeline.shutdown();
+            while (!tasks.isEmpty()) {
+                mergeResults(tasks.poll().get());
             }
+        } catch (InterruptedException | ExecutionException | IOException e) {
+            pipeline.shutdownNow();
+            AnalysisLog.error(e, "Batch analysis was interrupted.");
+            return false;
+        } finally {
+            stopExecutors();
         }
+        AnalysisLog.info("%d image(s) analysed", count);
         return true;
     }
 
-    void analyseFile(ImagePlus currImage, File resultsDirectory) throws Exception {
-        if (!(currImage.getProcessor() instanceof ColorProcessor)) {
-            if (currImage.isInvertedLut()) {
-                IJ.log("It looks like this image has an inverted LUT - the analysis may not work properly.");
+    /**
+     * Analyses the images already in <i>directory</i> and then continues to
+     * analyse new images as they appear, until {@link #stopWatching()} is
+     * called. Each image is analysed once it has been completely written, as
+     * determined by a {@link FolderWatcher}. Results are written in the order
+     * in which images are found.
+     *
+     * @return true if all images found were successfully processed, false
+     * otherwise.
+     */
+    public boolean watchFiles(File directory, File resultsDirectory) {
+        int nThreads = config.threads;
+        long stableMillis = config.watchStableMillis;
+        AnalysisLog.info("Watching %s using %d thread(s)", directory, nThreads);
+        ImagePipeline<Batch_Analyser> pipeline = startPipeline(nThreads);
+        ArrayDeque<Future<Batch_Analyser>> tasks = new ArrayDeque();
+        int count = 0;
+        try (FolderWatcher watcher = new FolderWatcher(directory, config.recursive,
+                getImageFilter(directory), resultsDirectory, stableMillis)) {
+            while (!stopWatching) {
+                for (String imageName : watcher.poll(WATCH_POLL_INTERVAL)) {
+                    if (shard != null && !shard.claim(imageName, resultsDirectory)) {
+                        continue;
+                    }
+                    tasks.add(submitFile(pipeline, directory, imageName, ++count, resultsDirectory));
+                }
+                while (!tasks.isEmpty() && tasks.peek().isDone()) {
+                    mergeResults(tasks.poll().get());
+                }
             }
-            int width = currImage.getWidth();
-            int height = currImage.getHeight();
+            /*
+             * Images found before watching stopped are completed
+             */
+            pipeline.shutdown();
+            while (!tasks.isEmpty()) {
+                mergeResults(tasks.poll().get());
+            }
+        } catch (InterruptedException | ExecutionException | IOException e) {
+            pipeline.shutdownNow();
+            AnalysisLog.error(e, "Watching was interrupted.");
+            return false;
+        } finally {
+            stopExecutors();
+        }
+        AnalysisLog.info("Stopped watching %s - %d image(s) analysed", directory, count);
+        return true;
+    }
+
+    /**
+     * Stops {@link #watchFiles} once the images already found have been
+     * analysed. May be called from any thread.
+     */
+    public void stopWatching() {
+        stopWatching = true;
+    }
+
+    /**
+     * If true, {@link #runHeadless} watches the input directory for new images
+     * with {@link #watchFiles}, rather than analysing only the images present
+     * at the start.
+     */
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
+    /**
+     * @return a filter selecting images within <i>directory</i> by the glob
+     * pattern specified by {@link DefaultParams#FILE_FILTER_LABEL} or, if
+     * none is specified, by the image format.
+     */
+    FilenameFilter getImageFilter(File directory) {
+        String glob = config.fileFilter;
+        if (glob.isEmpty()) {
+            return new OnlyExt(config.imageFormat);
+        }
+        return ImageWalker.globFilter(directory, glob);
+    }
+
+    /*
+     * Creates the pipeline through which images are analysed and, if
+     * required, the pool shared by workers for analysing objects.
+     */
+    private ImagePipeline<Batch_Analyser> startPipeline(int nThreads) {
+        int nObjectThreads = config.objectThreads;
+        AnalysisLog.info("Analysis stages: %s", getPlan());
+        if (nObjectThreads > 1) {
+            objectPool = new ForkJoinPool(nObjectThreads);
+        }
+        int[] threads = getStageThreads(nThreads);
+        int capacity = config.stageQueueCapacity;
+        pipeline = new ImagePipeline();
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            final int s = stage;
+            if (stage == WRITE_STAGE) {
+                pipeline.addStage(STAGE_NAMES[s], threads[s], capacity, worker -> finishFile(worker));
+            } else {
+                pipeline.addStage(STAGE_NAMES[s], threads[s], capacity, worker -> worker.runStage(s));
+            }
+        }
+        pipeline.start();
+        AnalysisLog.info("Pipeline threads (%s): %s", String.join(", ", STAGE_NAMES), Arrays.toString(threads));
+        memoryBudget = new MemoryBudget(getMemoryBudget(), getPlan(), config.preProcess,
+                config.createMasks, config.wholeImage, nObjectThreads);
+        AnalysisLog.info("Memory budget: %d MB", memoryBudget.getSize());
+        return pipeline;
+    }
+
+    /**
+     * @return the memory, in bytes, available for analysing images, as
+     * specified by {@link DefaultParams#MEMORY_BUDGET_LABEL} or, if not
+     * specified, {@link MemoryBudget#getDefaultBudget()}.
+     */
+    long getMemoryBudget() {
+        long megabytes = config.memoryBudget;
+        return megabytes > 0 ? megabytes * 1024 * 1024 : MemoryBudget.getDefaultBudget();
+    }
+
+    /**
+     * @return the number of threads for each stage of the pipeline, as
+     * specified by {@link DefaultParams#STAGE_THREADS_LABEL} or, if not
+     * specified, one thread for reading and writing and <i>nThreads</i> for
+     * each of the other stages.
+     */
+    int[] getStageThreads(int nThreads) {
+        return config.getStageThreads(new int[]{1, nThreads, nThreads, nThreads, 1});
+    }
+
+    /**
+     * @return the number of images waiting for each stage of the pipeline, or
+     * null if no images are being analysed.
+     */
+    public int[] getQueueDepths() {
+        ImagePipeline<Batch_Analyser> current = pipeline;
+        return current == null ? null : current.getQueueDepths();
+    }
+
+    private void stopExecutors() {
+        if (pipeline != null) {
+            AnalysisLog.info("%s", pipeline.getSummary());
+            if (metrics != null) {
+                metrics.recordPipeline(STAGE_NAMES, pipeline);
+            }
+            pipeline = null;
+        }
+        if (objectPool != null) {
+            objectPool.shutdown();
+            objectPool = null;
+        }
+    }
+
+    /**
+     * Submits an image for analysis, unless its results were recorded in the
+     * journal of the run being resumed. Blocks until the memory required to
+     * analyse the image is available within the {@link MemoryBudget}.
+     *
+     * @param position the position of the image in the batch, starting at 1
+     * @return the worker that will hold the results for this image
+     */
+    Future<Batch_Analyser> submitFile(ImagePipeline<Batch_Analyser> pipeline, File directory, String imageName, int position, File resultsDirectory) throws InterruptedException {
+        Batch_Analyser previous = getJournaledResults(imageName, resultsDirectory);
+        if (previous != null) {
+            metrics.increment(MetricsRegistry.Counter.IMAGES_RESUMED);
+            return CompletableFuture.completedFuture(previous);
+        }
+        Batch_Analyser worker = new Batch_Analyser(this);
+        worker.timings = metrics.startImage(imageName);
+        worker.useMorphFilters = true;
+        worker.outputResults = !config.wholeImage;
+        worker.imageName = imageName;
+        worker.imageDirectory = directory;
+        worker.resultsDirectory = resultsDirectory;
+        worker.position = position;
+        MemoryBudget budget = memoryBudget;
+        int granted = budget.acquire(new File(directory, imageName));
+        if (granted == budget.getSize() && budget.getSize() > 1) {
+            AnalysisLog.info("%s may require the whole memory budget - it will be analysed alone.", imageName);
+        }
+        CompletableFuture<Batch_Analyser> result;
+        try {
+            result = pipeline.submit(worker);
+        } catch (InterruptedException e) {
+            budget.release(granted);
+            throw e;
+        }
+        metrics.sampleQueueDepths(pipeline.getQueueDepths());
+        return result.whenComplete((w, e) -> budget.release(granted));
+    }
+
+    /**
+     * The last stage of the pipeline - writes the output images of a worker,
+     * releases its images and records it in the journal. Abandoned images are
+     * not journaled, so that they are analysed again when the run is resumed.
+     */
+    void finishFile(Batch_Analyser worker) {
+        worker.runStage(WRITE_STAGE);
+        worker.commitImageEvent();
+        worker.releaseImages();
+        if (worker.timings != null) {
+            metrics.finishImage(worker.timings, worker.abandoned);
+        }
+        if (worker.abandoned) {
+            AnalysisLog.debug("%s was not completed and will be retried if the run is resumed.", worker.imageName);
+        } else if (journal != null) {
+            try {
+                journal.record(worker.getJournalEntry());
+            } catch (IOException e) {
+                AnalysisLog.error(e, "Could not record %s in batch journal.", worker.imageName);
+            }
+        }
+    }
+
+    /*
+     * Commits the flight recorder event spanning the analysis of this
+     * worker's image. Its dimensions are recorded when the image is decoded.
+     */
+    private void commitImageEvent() {
+        FlightEvents.AnalyseImage event = imageEvent;
+        imageEvent = null;
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.image = imageName;
+            event.objects = objectCount;
+            event.abandoned = abandoned;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return a worker holding the results of <i>imageName</i> recorded in
+     * the journal of the run being resumed, or null if the image must be
+     * analysed because it was not completed or its output images are missing
+     */
+    Batch_Analyser getJournaledResults(String imageName, File resultsDirectory) {
+        BatchJournal.Entry entry = journaled == null ? null : journaled.get(imageName);
+        if (entry == null) {
+            return null;
+        }
+        for (String output : entry.outputs) {
+            if (!new File(resultsDirectory, output).exists()) {
+                return null;
+            }
+        }
+        return new Batch_Analyser(this, entry);
+    }
+
+    /**
+     * @return the outputs of the image analysed by this worker, for recording
+     * in the batch journal.
+     */
+    BatchJournal.Entry getJournalEntry() {
+        BatchJournal.Entry entry = new BatchJournal.Entry(imageName);
+        entry.rows.addAll(imageResults);
+        entry.outputs.addAll(outputFiles);
+        if (cumulativeCurveStats != null) {
+            entry.curveStats = cumulativeCurveStats;
+            entry.curveLabels = cumulativeCurveStatsLabels.size();
+        }
+        return entry;
+    }
+
+    /**
+     * Saves an output image to <i>resultsDirectory</i> as a PNG or TIFF file,
+     * depending on <i>format</i>, recording its file name.
+     */
+    void saveOutput(ImagePlus output, String format, File resultsDirectory) throws IOException {
+        /*
+         * Images found in subdirectories are saved to the corresponding
+         * subdirectories of the results directory
+         */
+        FlightEvents.WriteOutput event = new FlightEvents.WriteOutput();
+        event.begin();
+        String name = output.getTitle() + "." + format;
+        File file = new File(resultsDirectory, name);
+        file.getParentFile().mkdirs();
+        /*
+         * FileSaver is used directly, as IJ.saveAs saves PNG files through
+         * ImageJ's menus, which cannot be created when running headless
+         */
+        FileSaver saver = new FileSaver(output);
+        if (!("tif".equals(format) ? saver.saveAsTiff(file.getPath()) : saver.saveAsPng(file.getPath()))) {
+            throw new IOException(String.format("Could not save %s", file));
+        }
+        outputFiles.add(name);
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = name;
+            event.format = format;
+            event.width = output.getWidth();
+            event.height = output.getHeight();
+            event.commit();
+        }
+    }
+
+    /**
+     * If true, images recorded as complete in the journal of a previous run
+     * in the same results directory are not analysed again - their recorded
+     * results are used instead.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Writes the results generated by <i>worker</i> to the result sinks and
+     * appends them to the cumulative curvature statistics of this analyser.
+     * Sinks are flushed once all rows of the image have been written.
+     */
+    void mergeResults(Batch_Analyser worker) throws IOException {
+        mergedCount++;
+        if (!headless) {
+            IJ.showStatus(String.format("%s: %d image(s) analysed", title, mergedCount));
+        }
+        for (ResultRow row : worker.imageResults) {
+            for (ResultSink sink : resultSinks) {
+                sink.write(row);
+            }
+        }
+        for (ResultSink sink : resultSinks) {
+            sink.flush();
+        }
+        if (worker.cumulativeCurveStats != null) {
+            if (cumulativeCurveStats == null) {
+                cumulativeCurveStats = new ArrayList();
+                cumulativeCurveStatsLabels = new ArrayList();
+                for (int c = 0; c < worker.cumulativeCurveStats.size(); c++) {
+                    cumulativeCurveStats.add(new ArrayList<Double>());
+                }
+            }
+            for (int c = 0; c < worker.cumulativeCurveStats.size(); c++) {
+                cumulativeCurveStats.get(c).addAll(worker.cumulativeCurveStats.get(c));
+            }
+            cumulativeCurveStatsLabels.addAll(worker.cumulativeCurveStatsLabels);
+        }
+    }
+
+    /**
+     * Discards the full-frame buffers held for the current image once they are
+     * no longer needed.
+     */
+    private void releaseImages() {
+        maskImage = null;
+        labeller = null;
+        skeletonOverlays.clear();
+        curveMap = null;
+        wholeImageCurvature = null;
+        currImage = null;
+        preProcessedImage = null;
+        objects = null;
+        maskOutput = null;
+        skelOutput = null;
+        curveOutput = null;
+    }
+
+    /**
+     * Runs a single stage of the analysis of this worker's image. If a stage
+     * fails, or determines that the image cannot be analysed, later stages
+     * have no effect.
+     */
+    void runStage(int stage) {
+        if (abandoned) {
+            return;
+        }
+        if (stage == DECODE_STAGE) {
+            imageEvent = new FlightEvents.AnalyseImage();
+            imageEvent.begin();
+        }
+        FlightEvents.ImageStage event = new FlightEvents.ImageStage();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            switch (stage) {
+                case DECODE_STAGE:
+                    decodeImage();
+                    break;
+                case PRE_PROCESS_STAGE:
+                    preProcessImage();
+                    break;
+                case SEGMENT_STAGE:
+                    segmentImage();
+                    break;
+                case ANALYSE_STAGE:
+                    analyseSegmentedImage();
+                    break;
+                case WRITE_STAGE:
+                    writeOutputs();
+                    break;
+                default:
+            }
+        } catch (Exception e) {
+            AnalysisLog.error(e, "Problem analysing %s.", imageName);
+            abandoned = true;
+        } finally {
+            time(STAGE_METRICS[stage], start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.image = imageName;
+                event.stage = STAGE_NAMES[stage];
+                event.commit();
+            }
+        }
+    }
+
+    /*
+     * Records the time since start as one execution of stage for the current
+     * image, if metrics are being collected.
+     */
+    private void time(MetricsRegistry.Stage stage, long start) {
+        if (metrics != null) {
+            metrics.record(timings, stage, start);
+        }
+    }
+
+    private void decodeImage() {
+        currImage = new ImagePlus(new File(imageDirectory, imageName).getPath());
+        /*
+         * The decoded image is released after pre-processing, so its
+         * dimensions are recorded now
+         */
+        if (imageEvent != null) {
+            imageEvent.width = currImage.getWidth();
+            imageEvent.height = currImage.getHeight();
+        }
+        AnalysisLog.debug("\nAnalysing image %d - %s", position, imageName);
+        if (currImage.getProcessor() instanceof ColorProcessor) {
+            AnalysisLog.warn("Greyscale images required - %s will not be analysed.", imageName);
+            abandoned = true;
+        }
+    }
+
+    private void preProcessImage() {
+        if (currImage.isInvertedLut()) {
+            AnalysisLog.warn("It looks like %s has an inverted LUT - the analysis may not work properly.", imageName);
+        }
+        int width = currImage.getWidth();
+        int height = currImage.getHeight();
+        /*
+         * Full-frame outputs are only allocated if the stages that produce
+         * them are to be run
+         */
+        AnalysisPlan stages = getPlan();
+        maskImage = null;
+        curveMap = null;
+        skeletonOverlays.clear();
+        wholeImageCurvature = null;
+        if (stages.includes(AnalysisPlan.MASK)) {
             maskImage = new ByteProcessor(width, height);
+            maskImage.setColor(BACKGROUND);
+            maskImage.fill();
+        }
+        if (stages.includes(AnalysisPlan.CURVE_MAP)) {
             curveMap = new FloatProcessor(width, height);
             curveMap.setValue(0.0);
             curveMap.fill();
-            maskImage.setColor(BACKGROUND);
-            maskImage.fill();
-            colorSkelImage = new ColorProcessor(width, height);
+        }
+        if (stages.includes(AnalysisPlan.LONGEST_PATH)) {
             wholeImageCurvature = new DescriptiveStatistics();
+        }
+        labeller = null;
+        if (config.preProcess) {
+            preProcessedImage = preProcessImage(currImage.duplicate());
+        } else if (!BinaryMaker.checkIfBinary(currImage)) {
+            AnalysisLog.error(null, "Aborting %s - an 8-bit binary image is required.", imageName);
+            abandoned = true;
+        } else {
+            preProcessedImage = currImage.getProcessor().duplicate();
+        }
+        currImage = null;
+    }
+
+    private void segmentImage() {
+        searchRoi = new Roi(0, 0, preProcessedImage.getWidth(), preProcessedImage.getHeight());
+        objects = findObjects(preProcessedImage, searchRoi);
+        objectCount = objects.size();
+        if (metrics != null) {
+            metrics.add(MetricsRegistry.Counter.OBJECTS_FOUND, objects.size());
+        }
+        preProcessedImage = null;
+    }
+
+    private void analyseSegmentedImage() throws Exception {
+        Rectangle imageBox = searchRoi.getBounds();
+        analyseObjects(objects, imageBox, config.excludeEdges, searchRoi);
+        objects = null;
+        AnalysisPlan stages = getPlan();
+        if (config.createMasks) {
+            maskOutput = new ImagePlus(imageName + " - Mask", maskImage.duplicate());
+        }
+        if (config.wholeImage) {
+            outputResults = true;
+            useMorphFilters = false;
+            ByteProcessor wholeImageMask = (ByteProcessor) maskImage.duplicate();
+            wholeImageMask.setValue(BACKGROUND);
+            wholeImageMask.fill();
+            analyseImage(wholeImageMask, maskImage, null, config.excludeEdges, null);
+        }
+        if (stages.includes(AnalysisPlan.SKELETON_OVERLAY)) {
             /*
-             * Reference used to ensure that each object is only analysed once
+             * Object overlays are rendered only once all objects in the image
+             * have been analysed
              */
-            refProc = new ByteProcessor(width, height);
-            if (refProc.isInvertedLut()) {
-                refProc.invertLut();
-            }
-            refProc.setValue(BACKGROUND);
-            refProc.fill();
-            ImageProcessor preProcessedImage;
-            if (Boolean.parseBoolean(props.getProperty(DefaultParams.PRE_PROCESS_LABEL))) {
-                preProcessedImage = preProcessImage(currImage.duplicate());
-            } else if (!BinaryMaker.checkIfBinary(currImage)) {
-                GenUtils.logError(null, "Aborting - an 8-bit binary image is required.");
-                return;
-            } else {
-                preProcessedImage = currImage.getProcessor().duplicate();
-            }
-            searchImage(preProcessedImage, Boolean.parseBoolean(props.getProperty(DefaultParams.EXCLUDE_EDGE_LABEL)), null);
-            ImagePlus maskOutput = new ImagePlus(imageName + " - Mask", maskImage.duplicate());
-            if (Boolean.parseBoolean(props.getProperty(DefaultParams.CREATE_MASK_LABEL))) {
-                IJ.saveAs(maskOutput, "png", resultsDirectory + "//" + maskOutput.getTitle());
-            }
-            if (Boolean.parseBoolean(props.getProperty(DefaultParams.WHOLE_IMAGE_LABEL)) && maskOutput != null) {
-                outputResults = true;
-                useMorphFilters = false;
-                ByteProcessor wholeImageMask = (ByteProcessor) maskImage.duplicate();
-                wholeImageMask.setValue(BACKGROUND);
-                wholeImageMask.fill();
-                analyseImage(wholeImageMask, maskImage, null, Boolean.parseBoolean(props.getProperty(DefaultParams.EXCLUDE_EDGE_LABEL)), null);
-            }
-            if (((outputData & HYPHAL_GROWTH_UNIT) != 0) || ((outputData & NUMBER_OF_ENDPOINTS) != 0)
-                    || ((outputData & TOTAL_HYPHAL_LENGTH) != 0) || ((outputData & CURVATURE) != 0)) {
-                ImagePlus skelOutput = new ImagePlus(imageName + " - Skeleton", colorSkelImage);
-                ImagePlus curveOutput = new ImagePlus(imageName + " - Curve Map", curveMap);
-                if (Boolean.parseBoolean(props.getProperty(DefaultParams.CREATE_MASK_LABEL))) {
-                    IJ.saveAs(skelOutput, "png", resultsDirectory + "//" + skelOutput.getTitle());
-                    IJ.saveAs(curveOutput, "tif", resultsDirectory + "//" + curveOutput.getTitle());
-                }
+            ColorProcessor colorSkelImage = new ColorProcessor(imageBox.width, imageBox.height);
+            for (SkeletonOverlay overlay : skeletonOverlays) {
+                overlay.renderTo(colorSkelImage);
             }
-        } else {
-            IJ.log("Greyscale images required - " + imageName + " will not be analysed.");
+            skelOutput = new ImagePlus(imageName + " - Skeleton", colorSkelImage);
+        }
+        if (stages.includes(AnalysisPlan.CURVE_MAP)) {
+            curveOutput = new ImagePlus(imageName + " - Curve Map", curveMap);
+        }
+    }
+
+    private void writeOutputs() throws IOException {
+        if (maskOutput != null) {
+            saveOutput(maskOutput, "png", resultsDirectory);
+        }
+        if (skelOutput != null) {
+            saveOutput(skelOutput, "png", resultsDirectory);
+        }
+        if (curveOutput != null) {
+            saveOutput(curveOutput, "tif", resultsDirectory);
         }
     }
 
     private ByteProcessor preProcessImage(ImagePlus currentImage) {
         ImageProcessor currentProcessor = currentImage.getProcessor();
         if (currentProcessor == null) {
-            IJ.log("There was a problem reading " + currentImage.getTitle());
+            AnalysisLog.warn("There was a problem reading %s", currentImage.getTitle());
             return null;
         }
-        double filterRadius = Double.parseDouble(props.getProperty(DefaultParams.NOISE_RED_LABEL)) / Double.parseDouble(props.getProperty(DefaultParams.IMAGE_RES_LABEL));
+        double filterRadius = config.noiseFilterRadius;
 
-        if (!Boolean.parseBoolean(props.getProperty(DefaultParams.LIGHT_BACK_LABEL))) {
+        if (!config.lightBackground) {
             currentProcessor.invert();
         }
         if (currentProcessor instanceof FloatProcessor) {
@@ -332,25 +1087,25 @@ public class Batch_Analyser implements PlugIn {
         /*
          * Low-frequency noise removal
          */
-        if (Boolean.parseBoolean(props.getProperty(DefaultParams.REMOVE_BACK_LABEL))) {
+        if (config.removeBackground) {
             (new BackgroundSubtracter()).rollingBallBackground(currentProcessor,
-                    Double.parseDouble(props.getProperty(DefaultParams.BACK_FILT_LABEL)) / Double.parseDouble(props.getProperty(DefaultParams.IMAGE_RES_LABEL)), false, true, false,
+                    config.backgroundFilterRadius, false, true, false,
                     true, false);
         }
         (new GaussianBlur()).blurGaussian(currentProcessor, filterRadius, filterRadius, 0.01);
         /*
          * Generate binary image
          */
-        if (Boolean.parseBoolean(props.getProperty(DefaultParams.AUTO_THRESH_LABEL))) {
+        if (config.autoThreshold) {
             FuzzyThresholder ft = new FuzzyThresholder(currentProcessor.duplicate(),
-                    AutoThresholder.Method.valueOf(props.getProperty(DefaultParams.THRESH_METH_LABEL)), 0.00);
+                    config.thresholdMethod, 0.00);
             currentProcessor = ft.threshold();
             currentProcessor.erode();
             currentProcessor.dilate();
         } else {
-            currentProcessor.threshold(Integer.parseInt(props.getProperty(DefaultParams.THRESH_LEV_LABEL)));
+            currentProcessor.threshold(config.thresholdLevel);
         }
-        if (Boolean.parseBoolean(props.getProperty(DefaultParams.SEPARATE_TOUCHING_LABEL))) {
+        if (config.separateTouching) {
             currentProcessor.invert();
             (new EDM()).toWatershed(currentProcessor);
             currentProcessor.invert();
@@ -365,14 +1120,18 @@ public class Batch_Analyser implements PlugIn {
      */
     public boolean showGUI() {
         boolean valid = false;
-        if (Batch_Analyser.props == null) {
-            Batch_Analyser.props = new DefaultParams();
+        if (props == null) {
+            props = new DefaultParams();
+            if (sessionProps != null) {
+                props.putAll(sessionProps);
+            }
         }
         while (!valid) {
             valid = true;
             UserInterface gui = new UserInterface(IJ.getInstance(), true, title, props);
             gui.setVisible(true);
             if (!gui.exitProgram()) {
+                sessionProps = props;
                 return true;
             } else {
                 return false;
@@ -381,79 +1140,128 @@ public class Batch_Analyser implements PlugIn {
         return true;
     }
 
-    private void setOutputs() {
+    /*
+     * Compiles the parameters of the run that is about to start, returning
+     * false, after reporting the problem, if any are invalid.
+     */
+    boolean setOutputs() {
+        try {
+            config = AnalysisConfig.compile(props);
+        } catch (IllegalArgumentException e) {
+            AnalysisLog.error(null, "%s", e.getMessage());
+            AnalysisLog.flush();
+            return false;
+        }
         boolean options[] = getOptions();
+        plan = null;
         outputData = 0;
         for (int n = 0; n < options.length; n++) {
             if (options[n]) {
                 outputData += (int) Math.round(Math.pow(2.0, n));
             }
         }
+        return true;
     }
 
     /**
      * Searches the image (represented by <code>currentImage</code>) for
-     * objects, traces the outline of each object using {@link Wand}
-     * <code>.autoOutline()</code> and sends each detected boundary to
-     * <code>analyseImage()</code> for morphological analysis.
+     * objects using an {@link ObjectLabeller}, traces the outline of each
+     * object using {@link Wand} <code>.autoOutline()</code> and sends each
+     * detected object for morphological analysis.
      */
     public int searchImage(ImageProcessor binaryProcessor, boolean excludeEdges, Roi roi) throws Exception {
-        int i, currentPixel, x, y, offset, objects;
         int width = binaryProcessor.getWidth();
         int height = binaryProcessor.getHeight();
         if (roi == null) {
             roi = new Roi(0, 0, width, height);
         }
-        if (refProc == null) {
-            refProc = new ByteProcessor(width, height);
-            if (refProc.isInvertedLut()) {
-                refProc.invertLut();
-            }
-            refProc.setValue(BACKGROUND);
-            refProc.fill();
-        }
-        if (maskImage == null && Boolean.parseBoolean(props.getProperty(DefaultParams.CREATE_MASK_LABEL))) {
+        return analyseObjects(findObjects(binaryProcessor, roi), new Rectangle(0, 0, width, height), excludeEdges, roi);
+    }
+
+    /**
+     * Labels the objects within <i>roi</i> and traces the outline of each.
+     *
+     * @return the objects found, in the order in which a raster scan would
+     * encounter them
+     */
+    ArrayList<ObjectAnalysis> findObjects(ImageProcessor binaryProcessor, Roi roi) {
+        int width = binaryProcessor.getWidth();
+        int height = binaryProcessor.getHeight();
+        if (maskImage == null && getConfig().createMasks) {
             maskImage = new ByteProcessor(width, height);
             maskImage.setColor(BACKGROUND);
             maskImage.fill();
         }
-        Rectangle bounds = roi.getBounds();
         /*
          * Ensure image is not inverted
          */
 //        if (checkGreyLevels) {
 //            binaryProcessor = ensureGreyValues(binaryProcessor, false);
 //        }
-        byte pixels[] = (byte[]) binaryProcessor.getPixels();
         ImageProcessor filledBP = binaryProcessor.duplicate();
         fill(filledBP, FOREGROUND, BACKGROUND);
-        Wand wand = new Wand(filledBP);
         /*
-         * Image is scanned in a raster fashion searching for FOREGROUND pixels
-         * that are not yet present in the reference image.
+         * All objects are labelled in a single sweep of the image, in the
+         * order in which a raster scan would encounter them.
          */
-        for (y = bounds.y, objects = 0; y < bounds.height; y++) {
-            offset = y * width;
-            for (x = bounds.x; x < bounds.width; x++) {
-                i = offset + x;
-                currentPixel = pixels[i] & 0xff;
-                if (roi.contains(x, y) && currentPixel == FOREGROUND
-                        && refProc.getPixelValue(x, y) == BACKGROUND) {
-                    /*
-                     * Ensure that a foreground pixel exists 'south-east' of the
-                     * current position
-                     */
-                    IJ.log(String.format("\nFound object at (%d, %d) - generating outline...", x, y, DefaultParams.BOX_COUNT_LABEL));
-                    wand.autoOutline(x, y, 0.0, Wand.EIGHT_CONNECTED);
-                    IJ.log("Analysing object...");
-                    if (analyseObject(wand.xpoints, wand.ypoints, wand.npoints,
-                            binaryProcessor.duplicate(), excludeEdges, roi)) {
-                        objects++;
-                    }
+        labeller = new ObjectLabeller(filledBP, binaryProcessor, FOREGROUND, roi);
+        Wand wand = new Wand(filledBP);
+        ArrayList<ObjectAnalysis> objects = new ArrayList();
+        for (int n = 0; n < labeller.getObjectCount(); n++) {
+            int x = labeller.getSeedX(n);
+            int y = labeller.getSeedY(n);
+            AnalysisLog.trace("\nFound object at (%d, %d) - generating outline...", x, y);
+            wand.autoOutline(x, y, 0.0, Wand.EIGHT_CONNECTED);
+            PolygonRoi objectRoi = getPolygonRoi(wand.npoints, wand.xpoints, wand.ypoints);
+            ObjectAnalysis object = new ObjectAnalysis(labeller.getObjectMask(n), objectRoi, labeller.getBounds(n));
+            object.index = n;
+            object.pixArea = labeller.getPixelCount(n);
+            object.xSum = labeller.getXSum(n);
+            object.ySum = labeller.getYSum(n);
+            objects.add(object);
+        }
+        return objects;
+    }
+
+    /**
+     * Analyses each of the specified objects, concurrently if an object thread
+     * pool is available, and merges the outputs into the image-wide results in
+     * the order in which the objects were found. Each object is analysed
+     * within a crop of its bounding box.
+     *
+     * @return the number of objects successfully analysed
+     */
+    int analyseObjects(ArrayList<ObjectAnalysis> objects, Rectangle imageBox,
+            boolean excludeEdges, Roi imageRoi) throws Exception {
+        if (objectPool == null || objects.size() < 2) {
+            for (ObjectAnalysis object : objects) {
+                AnalysisLog.trace("Analysing object...");
+                if (analyseObject(object, labeller.getObjectImage(object.index, BACKGROUND), imageBox, excludeEdges, imageRoi)) {
+                    mergeObjectImages(object);
                 }
             }
+        } else {
+            ArrayList<Callable<Boolean>> tasks = new ArrayList();
+            for (ObjectAnalysis object : objects) {
+                tasks.add(() -> {
+                    if (analyseObject(object, labeller.getObjectImage(object.index, BACKGROUND), imageBox, excludeEdges, imageRoi)) {
+                        mergeObjectImages(object);
+                    }
+                    return object.analysed;
+                });
+            }
+            for (Future<Boolean> task : objectPool.invokeAll(tasks)) {
+                task.get();
+            }
         }
-        return objects;
+        int count = 0;
+        for (ObjectAnalysis object : objects) {
+            if (object.analysed) {
+                mergeObjectResults(object);
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
@@ -509,49 +1317,104 @@ public class Batch_Analyser implements PlugIn {
 
     public boolean analyseImage(ByteProcessor objMask,
             ImageProcessor binProc, PolygonRoi objRoi, boolean excludeEdges, Roi imageRoi) {
-        double imageRes = Double.parseDouble(props.getProperty(DefaultParams.IMAGE_RES_LABEL));
-        double imageRes2 = imageRes * imageRes;
-        int x, y, pixArea = 0, numEnds = 0, numBranches = 0;
-        int minPixLength = (int) Math.round(Double.parseDouble(props.getProperty(DefaultParams.MIN_BRANCH_LABEL)) / Double.parseDouble(props.getProperty(DefaultParams.IMAGE_RES_LABEL)));
-        double var, meanSq, objArea, objCirc, xCent, yCent, curvature = Double.NaN;
-        double objectPerim = 1.0, lac = 1.0, distfracDim = Double.NaN;
-        double xSum = 0.0, ySum = 0.0, growthUnit = 0.0, totalLength = 0.0;
-        Rectangle objBox, imageBox = new Rectangle(0, 0, binProc.getWidth(), binProc.getHeight());
-        double boxFracDims[] = null;
+        ObjectAnalysis object = measureObject(objMask, binProc, objRoi);
+        ImageProcessor objProc = binProc;
         if (objRoi != null) {
-            Polygon poly = objRoi.getPolygon();
-            objBox = poly.getBounds();
-        } else {
-            objBox = new Rectangle(0, 0, objMask.getWidth(), objMask.getHeight());
+            /*
+             * Reduce image size to reduce processing time and remove any
+             * FOREGROUND pixels that do not belong to this object
+             */
+            binProc.setRoi(object.box);
+            objProc = binProc.crop();
+            binProc.resetRoi();
+            objMask.invert();
+            ByteBlitter objBlit = new ByteBlitter((ByteProcessor) objProc);
+            objBlit.copyBits(objMask, 0, 0, Blitter.MAX);
+            objMask.invert();
         }
-        IJ.log(String.format("Calculating %s", DefaultParams.PROJ_AREA_LABEL));
-        if (refProc != null) {
-            refProc.setColor(FOREGROUND);
+        if (!analyseObject(object, objProc, new Rectangle(0, 0, binProc.getWidth(), binProc.getHeight()), excludeEdges, imageRoi)) {
+            return false;
         }
-        for (y = objBox.y; y <= (objBox.height + objBox.y); y++) {
-            for (x = objBox.x; x <= (objBox.width + objBox.x); x++) {
+        mergeObjectImages(object);
+        mergeObjectResults(object);
+        return true;
+    }
+
+    /**
+     * Determines the area and centroid of an object, excluding any pixels
+     * that belong to objects already detected by {@link #searchImage}.
+     */
+    ObjectAnalysis measureObject(ByteProcessor objMask, ImageProcessor binProc, PolygonRoi objRoi) {
+        ObjectAnalysis object = new ObjectAnalysis(objMask, objRoi);
+        Rectangle objBox = object.box;
+        AnalysisLog.trace("Calculating %s", DefaultParams.PROJ_AREA_LABEL);
+        for (int y = objBox.y; y <= (objBox.height + objBox.y); y++) {
+            for (int x = objBox.x; x <= (objBox.width + objBox.x); x++) {
                 if (objMask.getPixel(x - objBox.x, y - objBox.y) == BACKGROUND) {
                     if ((binProc.getPixelValue(x, y) == FOREGROUND)
-                            && (refProc.getPixel(x, y) == BACKGROUND)) {
-                        xSum += x - objBox.x;
-                        ySum += y - objBox.y;
-                        pixArea++;
-                        if (refProc != null) {
-                            refProc.drawPixel(x, y);
-                        }
+                            && (labeller == null || !labeller.isDetected(x, y))) {
+                        object.xSum += x - objBox.x;
+                        object.ySum += y - objBox.y;
+                        object.pixArea++;
                     }
-                    /*
-                     * else { objMask.putPixel(x - objBox.x, y - objBox.y,
-                     * FOREGROUND); }
-                     */
-
                 }
             }
         }
+        return object;
+    }
+
+    /**
+     * Analyses the morphology of a previously measured object. Outputs are
+     * stored in <i>object</i> rather than in the image-wide results, so this
+     * method may be called concurrently for different objects.
+     *
+     * @param binProc binary image of the object, cropped to its bounding box
+     * and containing no pixels of other objects, which may be modified
+     * @param imageBox the bounds of the image containing the object
+     * @return true if the object was analysed, false if it was rejected
+     */
+    boolean analyseObject(ObjectAnalysis object, ImageProcessor binProc, Rectangle imageBox, boolean excludeEdges, Roi imageRoi) {
+        FlightEvents.AnalyseObject event = new FlightEvents.AnalyseObject();
+        event.begin();
+        long start = System.nanoTime();
+        boolean analysed = runObjectStages(object, binProc, imageBox, excludeEdges, imageRoi);
+        time(MetricsRegistry.Stage.OBJECT, start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.image = imageName;
+            event.index = object.index;
+            event.pixelArea = object.pixArea;
+            event.x = object.box.x;
+            event.y = object.box.y;
+            event.width = object.box.width;
+            event.height = object.box.height;
+            event.analysed = analysed;
+            event.commit();
+        }
+        if (metrics != null) {
+            metrics.increment(analysed ? MetricsRegistry.Counter.OBJECTS_ANALYSED : MetricsRegistry.Counter.OBJECTS_REJECTED);
+        }
+        return analysed;
+    }
+
+    private boolean runObjectStages(ObjectAnalysis object, ImageProcessor binProc, Rectangle imageBox, boolean excludeEdges, Roi imageRoi) {
+        ByteProcessor objMask = object.mask;
+        PolygonRoi objRoi = object.roi;
+        int pixArea = object.pixArea;
+        AnalysisConfig config = getConfig();
+        double imageRes = config.imageResolution;
+        double imageRes2 = imageRes * imageRes;
+        int numEnds = 0, numBranches = 0;
+        int minPixLength = (int) Math.round(config.minBranchLength / imageRes);
+        double var, meanSq, objArea, objCirc, xCent, yCent, curvature = Double.NaN;
+        double objectPerim = 1.0, lac = 1.0, distfracDim = Double.NaN;
+        double growthUnit = 0.0, totalLength = 0.0;
+        Rectangle objBox = new Rectangle(object.box);
+        double boxFracDims[] = null;
         Rectangle imageRoiBounds = (imageRoi == null)
-                ? new Rectangle(0, 0, binProc.getWidth(), binProc.getHeight()) : imageRoi.getBounds();
+                ? new Rectangle(imageBox) : imageRoi.getBounds();
         if (excludeEdges && Utilities.checkBounds(objBox, imageRoiBounds)) {
-            IJ.log("Edge object - skipping.");
+            AnalysisLog.trace("Edge object - skipping.");
             return false;
         }
         objArea = pixArea * imageRes2;
@@ -576,51 +1439,45 @@ public class Batch_Analyser implements PlugIn {
              * Check area and circularity against user-specified threshold
              * values.
              */
-            if ((objArea < Double.parseDouble(props.getProperty(DefaultParams.MIN_AREA_LABEL))) || (objArea > MAX_AREA)
-                    || (objCirc < MIN_CIRC) || (objCirc > Double.parseDouble(props.getProperty(DefaultParams.MAX_CIRC_LABEL)))) {
-                IJ.log("Object does not meet morphological criteria for further analysis.");
+            if ((objArea < config.minArea) || (objArea > MAX_AREA)
+                    || (objCirc < MIN_CIRC) || (objCirc > config.maxCircularity)) {
+                AnalysisLog.trace("Object does not meet morphological criteria for further analysis.");
                 return false;
             }
-            binProc.setRoi(objBox);
-            binProc = binProc.crop(); // Reduce image size to reduce processing time
-            objMask.invert();
-
-            /*
-             * Remove any FOREGROUND pixels that do not belong to this object
-             */
-            ByteBlitter objBlit = new ByteBlitter((ByteProcessor) binProc);
-            objBlit.copyBits(objMask, 0, 0, Blitter.MAX);
-
-            ByteBlitter maskBlit = new ByteBlitter(maskImage);
-            maskBlit.copyBits(binProc, objBox.x, objBox.y, Blitter.MIN);
-            objMask.invert();
+            mergeObjectMask(binProc, objBox);
         }
 
-        if (((outputData & HYPHAL_GROWTH_UNIT) != 0) || ((outputData & NUMBER_OF_ENDPOINTS) != 0)
-                || ((outputData & TOTAL_HYPHAL_LENGTH) != 0) || ((outputData & LACUNARITY) != 0)
-                || ((outputData & CURVATURE) != 0)) {
-            /*
-             * An estimate of the object's lacunarity is used to determine
-             * whether an accurate evaluation of hyphal length and number of
-             * hyphal tips is possible.
-             */
-            IJ.log(String.format("Calculating %s", DefaultParams.LAC_LABEL));
+        AnalysisPlan stages = getPlan();
+        boolean skeleton = stages.includes(AnalysisPlan.SKELETON);
+        if (stages.includes(AnalysisPlan.LACUNARITY) || skeleton) {
             binProc.setMask(objMask); // Restrict calculation of lacunarity to within object boundary
-            binProc.invert(); // Foreground pixels = 255, to ensure non-zero mean
-            ImageStatistics objStats = ImageStatistics.getStatistics(binProc,
-                    Measurements.MEAN + Measurements.STD_DEV, null);
-            var = Math.pow(objStats.stdDev, 2);
-            meanSq = Math.pow(objStats.mean, 2);
-            lac = Math.abs((var / meanSq) - 1.0);
-            if (((outputData & HYPHAL_GROWTH_UNIT) != 0) || ((outputData & NUMBER_OF_ENDPOINTS) != 0)
-                    || ((outputData & TOTAL_HYPHAL_LENGTH) != 0) || ((outputData & CURVATURE) != 0)) {
-                binProc.invert(); // Reverse inversion above
+            if (stages.includes(AnalysisPlan.LACUNARITY)) {
+                /*
+                 * An estimate of the object's lacunarity is used to determine
+                 * whether an accurate evaluation of hyphal length and number
+                 * of hyphal tips is possible.
+                 */
+                AnalysisLog.trace("Calculating %s", DefaultParams.LAC_LABEL);
+                long start = System.nanoTime();
+                binProc.invert(); // Foreground pixels = 255, to ensure non-zero mean
+                ImageStatistics objStats = ImageStatistics.getStatistics(binProc,
+                        Measurements.MEAN + Measurements.STD_DEV, null);
+                var = Math.pow(objStats.stdDev, 2);
+                meanSq = Math.pow(objStats.mean, 2);
+                lac = Math.abs((var / meanSq) - 1.0);
+                if (skeleton) {
+                    binProc.invert(); // Reverse inversion above
+                }
+                time(MetricsRegistry.Stage.LACUNARITY, start);
+            }
+            if (skeleton) {
                 /*
                  * Draw a white border around object to ensure no 'contact'
                  * between object and image boundary
                  */
                 try {
-                    IJ.log("Skeletonising...");
+                    AnalysisLog.trace("Skeletonising...");
+                    long start = System.nanoTime();
                     ByteProcessor objProc = (ByteProcessor) binProc.createProcessor((objBox.width + 4), (objBox.height + 4));
                     objProc.setValue(BACKGROUND);
                     objProc.fill();
@@ -631,40 +1488,78 @@ public class Batch_Analyser implements PlugIn {
                  * number
                      */
                     objProc.skeletonize();
+                    time(MetricsRegistry.Stage.SKELETONISE, start);
                     /*
                  * Prune image to remove artefacts of skeletonisation
                      */
-                    IJ.log("Pruning skeleton...");
-                    SkeletonPruner pruner1 = new SkeletonPruner(minPixLength, objProc, objBox, false, false);
+                    AnalysisLog.trace("Pruning skeleton...");
+                    FlightEvents.PruneSkeleton pruneEvent = new FlightEvents.PruneSkeleton();
+                    pruneEvent.begin();
+                    start = System.nanoTime();
+                    SkeletonPruner pruner1 = new SkeletonPruner(minPixLength, objProc, objBox, false, false,
+                            config.graphPruning);
                     objProc = pruner1.getPrunedImage();
-//                    IJ.saveAs(new ImagePlus("", objProc), "PNG", "D:\\debugging\\anamorf_debug\\objProc");
-//                SkeletonPruner pruner2 = new SkeletonPruner(0, (ByteProcessor) objProc.duplicate(), objBox, true, true);
-                    IJ.log(String.format("Calculating %s", DefaultParams.CURVE_LABEL));
-                    curvature = generateCurveMap(new HyphalAnalyser(objProc.duplicate(), Double.parseDouble(props.getProperty(DefaultParams.IMAGE_RES_LABEL)), imageBox, objBox).findLongestPath(), imageRoiBounds.width, imageRoiBounds.height, curveMap, (int) Math.round(Double.parseDouble(props.getProperty(DefaultParams.CURVE_WIN_LABEL))));
-                    if (!Double.isNaN(curvature)) {
-                        wholeImageCurvature.addValue(curvature);
+                    time(MetricsRegistry.Stage.PRUNE, start);
+                    pruneEvent.end();
+                    if (pruneEvent.shouldCommit()) {
+                        pruneEvent.image = imageName;
+                        pruneEvent.pixelArea = object.pixArea;
+                        pruneEvent.x = object.box.x;
+                        pruneEvent.y = object.box.y;
+                        pruneEvent.width = object.box.width;
+                        pruneEvent.height = object.box.height;
+                        pruneEvent.iterations = pruner1.getIterations();
+                        pruneEvent.pixelsRemoved = pruner1.getPixelsRemoved();
+                        pruneEvent.graphPruning = config.graphPruning;
+                        pruneEvent.commit();
                     }
-                    IJ.log("Analysing skeleton...");
-                    HyphalAnalyser analyser = new HyphalAnalyser(objProc, Double.parseDouble(props.getProperty(DefaultParams.IMAGE_RES_LABEL)), imageBox, objBox);
-//                analyser.findLongestPath();
+                    HyphalAnalyser analyser = new HyphalAnalyser(objProc, imageRes,
+                            imageBox, objBox, stages.includes(AnalysisPlan.SKELETON_OVERLAY));
+                    if (stages.includes(AnalysisPlan.LONGEST_PATH)) {
+                        AnalysisLog.trace("Calculating %s", DefaultParams.CURVE_LABEL);
+                        FlightEvents.LongestPath pathEvent = new FlightEvents.LongestPath();
+                        pathEvent.begin();
+                        start = System.nanoTime();
+                        ArrayList<int[][]> longestPath = analyser.findLongestPath();
+                        time(MetricsRegistry.Stage.LONGEST_PATH, start);
+                        pathEvent.end();
+                        if (pathEvent.shouldCommit()) {
+                            LongestPathFinder finder = analyser.getWalker().getPathFinder();
+                            pathEvent.image = imageName;
+                            pathEvent.pixelArea = object.pixArea;
+                            pathEvent.x = object.box.x;
+                            pathEvent.y = object.box.y;
+                            pathEvent.width = object.box.width;
+                            pathEvent.height = object.box.height;
+                            if (finder != null) {
+                                pathEvent.nodes = finder.getNodeCount();
+                                pathEvent.edges = finder.getEdgeCount();
+                                pathEvent.sweepLimitReached = finder.isSweepLimitReached();
+                            }
+                            pathEvent.commit();
+                        }
+                        start = System.nanoTime();
+                        curvature = generateCurveMap(longestPath, object, config.curveWindow);
+                        time(MetricsRegistry.Stage.CURVE_MAP, start);
+                        object.curvature = curvature;
+                    }
+                    AnalysisLog.trace("Analysing skeleton...");
                     analyser.analyse(); // Analyse pruned skeleton
                     growthUnit = analyser.getHGU();
                     totalLength = analyser.getLength();
                     numEnds = analyser.getTips();
                     numBranches = analyser.getBranchpoints();
-                    ColorBlitter skelBlit = new ColorBlitter(colorSkelImage);
-                    skelBlit.copyBits(analyser.getColorOutput(), 0, 0, Blitter.ADD);
-                    bwSkelImage = analyser.getBWOutput();
-                    bwSkelImage.invert();
+                    object.skeletonOverlay = analyser.getOverlay();
                 } catch (Exception e) {
-                    IJ.log("Problem analysing object in this image - skipping current object");
+                    AnalysisLog.debug("Problem analysing object in %s - skipping current object", imageName);
                     return false;
                 }
             }
         }
 
         if ((outputData & FOURIER_FRACTAL_DIMENSION) != 0 && objRoi != null) {
-            IJ.log(String.format("Calculating %s", DefaultParams.FOURIER_FRAC_LABEL));
+            AnalysisLog.trace("Calculating %s", DefaultParams.FOURIER_FRAC_LABEL);
+            long start = System.nanoTime();
             /*
              * A different form of <i>PolygonRoi</i> (<i>Roi.POLYGON</i>) is
              * contructed to provide an accurate determination of the number of
@@ -675,17 +1570,17 @@ public class Batch_Analyser implements PlugIn {
             ByteProcessor polyproc = new ByteProcessor(binProc.getWidth(), binProc.getHeight());
             polyproc.setColor(Color.white);
             polyproc.draw(polyObjRoi);
-            xCent = xSum / pixArea;
-            yCent = ySum / pixArea;
+            xCent = object.xSum / pixArea;
+            yCent = object.ySum / pixArea;
             Pixel boundPoints[] = DSPProcessor.getDistanceSignal(polyObjRoi.getNCoordinates(),
                     xCent, yCent, polyObjRoi.getXCoordinates(),
-                    polyObjRoi.getYCoordinates(), Double.parseDouble(props.getProperty(DefaultParams.IMAGE_RES_LABEL)));
+                    polyObjRoi.getYCoordinates(), imageRes);
             double dist[] = new double[boundPoints.length];
             for (int i = 0; i < boundPoints.length; i++) {
                 dist[i] = boundPoints[i].getZ();
             }
             double[] upscaledDistInput = DSPProcessor.upScale(dist);
-            double sampleRate = (1.0d / Double.parseDouble(props.getProperty(DefaultParams.IMAGE_RES_LABEL)))
+            double sampleRate = (1.0d / imageRes)
                     * upscaledDistInput.length / dist.length;
             double distfracparams[] = DSPProcessor.calcFourierDim(DSPProcessor.calcFourierSpec(upscaledDistInput, sampleRate), sampleRate, 1.0);
             if (distfracparams != null) {
@@ -693,71 +1588,129 @@ public class Batch_Analyser implements PlugIn {
             } else {
                 distfracDim = Double.NaN;
             }
+            time(MetricsRegistry.Stage.FOURIER, start);
         }
 
         if ((outputData & BOX_FRACTAL_DIMENSION) != 0) {
-            IJ.log(String.format("Calculating %s", DefaultParams.BOX_COUNT_LABEL));
-            if (Boolean.parseBoolean(props.getProperty(DefaultParams.WHOLE_IMAGE_LABEL))) {
+            AnalysisLog.trace("Calculating %s", DefaultParams.BOX_COUNT_LABEL);
+            long start = System.nanoTime();
+            if (config.wholeImage) {
                 boxFracDims = (new FractalEstimator()).do2DEstimate(binProc);
             } else {
                 binProc.setRoi(objBox);
                 boxFracDims = (new FractalEstimator()).do2DEstimate(binProc.crop());
             }
+            time(MetricsRegistry.Stage.BOX_COUNT, start);
         }
 
         if (outputResults && (outputData != 0)) {
             /*
-             * Output results to ImageJ's results table.
+             * Results are held by this analyser until they can be merged into
+             * ImageJ's results table in filename order.
              */
-            resultsTable.incrementCounter();
+            ResultRow row = new ResultRow(imageName);
             if ((outputData & CIRC) != 0) {
-                resultsTable.addValue(CIRC_HEAD, objCirc);
+                row.addValue(CIRC_HEAD, objCirc);
             }
             if ((outputData & AREAS) != 0) {
                 double area = objArea;
-                if (Boolean.parseBoolean(props.getProperty(DefaultParams.WHOLE_IMAGE_LABEL))) {
+                if (config.wholeImage) {
                     area = binProc.getStatistics().histogram[FOREGROUND] * imageRes2;
                 }
-                resultsTable.addValue(AREA_HEAD, area);
+                row.addValue(AREA_HEAD, area);
             }
             if ((outputData & FOURIER_FRACTAL_DIMENSION) != 0) {
-                resultsTable.addValue(FOUR_FRAC_HEAD, distfracDim);
+                row.addValue(FOUR_FRAC_HEAD, distfracDim);
             }
             if ((outputData & LACUNARITY) != 0) {
-                resultsTable.addValue(LAC_HEAD, lac);
+                row.addValue(LAC_HEAD, lac);
             }
             if ((outputData & TOTAL_HYPHAL_LENGTH) != 0) {
-                resultsTable.addValue(LENGTH_HEAD, (totalLength * Double.parseDouble(props.getProperty(DefaultParams.IMAGE_RES_LABEL))));
+                row.addValue(LENGTH_HEAD, (totalLength * imageRes));
             }
             if ((outputData & NUMBER_OF_ENDPOINTS) != 0) {
-                resultsTable.addValue(TIP_HEAD, numEnds);
+                row.addValue(TIP_HEAD, numEnds);
             }
             if ((outputData & HYPHAL_GROWTH_UNIT) != 0) {
-                resultsTable.addValue(HGU_HEAD, (growthUnit * Double.parseDouble(props.getProperty(DefaultParams.IMAGE_RES_LABEL))));
+                row.addValue(HGU_HEAD, (growthUnit * imageRes));
             }
             if ((outputData & NUMBER_OF_BRANCHES) != 0) {
-                resultsTable.addValue(BRANCH_HEAD, numBranches);
+                row.addValue(BRANCH_HEAD, numBranches);
             }
             if ((outputData & BOX_FRACTAL_DIMENSION) != 0) {
                 if (boxFracDims != null) {
-                    resultsTable.addValue(BOX_FRAC_HEAD, boxFracDims[0]);
+                    row.addValue(BOX_FRAC_HEAD, boxFracDims[0]);
                 } else {
-                    resultsTable.addValue(BOX_FRAC_HEAD, Double.NaN);
+                    row.addValue(BOX_FRAC_HEAD, Double.NaN);
                 }
             }
             if ((outputData & CURVATURE) != 0) {
-                if (Boolean.parseBoolean(props.getProperty(DefaultParams.WHOLE_IMAGE_LABEL))) {
+                if (config.wholeImage) {
                     curvature = wholeImageCurvature.getMean();
-                    double[] vals = wholeImageCurvature.getSortedValues();
-                    vals = wholeImageCurvature.getValues();
                 }
-                resultsTable.addValue(CURVE_HEAD + "_" + props.getProperty(DefaultParams.CURVE_WIN_LABEL), curvature);
+                row.addValue(CURVE_HEAD + "_" + config.curveWindowText, curvature);
             }
-            resultsTable.addLabel("Image", imageName);
+            object.row = row;
         }
+        object.analysed = true;
         return true;
     }
 
+    /**
+     * Merges the skeleton overlay and curve map values of an analysed object
+     * into the image-wide outputs. Overlays are added together when rendered,
+     * so objects may be merged in any order.
+     */
+    synchronized void mergeObjectImages(ObjectAnalysis object) {
+        if (object.skeletonOverlay != null && !object.skeletonOverlay.isEmpty()) {
+            skeletonOverlays.add(object.skeletonOverlay);
+        }
+        for (int i = 0; curveMap != null && i < object.curvePixels.size(); i++) {
+            int[] pix = object.curvePixels.get(i);
+            curveMap.putPixelValue(pix[0], pix[1], object.curveValues.get(i));
+        }
+        object.skeletonOverlay = null;
+    }
+
+    /**
+     * Adds an object, cropped to its bounding box, to the mask image.
+     */
+    synchronized void mergeObjectMask(ImageProcessor objProc, Rectangle objBox) {
+        if (maskImage != null) {
+            ByteBlitter maskBlit = new ByteBlitter(maskImage);
+            maskBlit.copyBits(objProc, objBox.x, objBox.y, Blitter.MIN);
+        }
+    }
+
+    /**
+     * Appends the results of an analysed object to the results for the
+     * current image. Objects must be merged in the order in which they were
+     * found.
+     */
+    void mergeObjectResults(ObjectAnalysis object) {
+        if (!Double.isNaN(object.curvature) && wholeImageCurvature != null) {
+            wholeImageCurvature.addValue(object.curvature);
+        }
+        if (object.curveStats != null) {
+            if (cumulativeCurveStats == null) {
+                cumulativeCurveStats = new ArrayList();
+                cumulativeCurveStatsLabels = new ArrayList();
+                for (int c = 0; c < object.curveStats.size(); c++) {
+                    cumulativeCurveStats.add(new ArrayList<Double>());
+                }
+            }
+            for (int c = 0; c < object.curveStats.size(); c++) {
+                cumulativeCurveStats.get(c).addAll(object.curveStats.get(c));
+            }
+            for (int i = 0; i < object.curveValues.size(); i++) {
+                cumulativeCurveStatsLabels.add(imageName);
+            }
+        }
+        if (object.row != null) {
+            imageResults.add(object.row);
+        }
+    }
+
     /**
      * Constructs a PolygonRoi object from a set of input coordinates.
      *
@@ -791,6 +1744,25 @@ public class Batch_Analyser implements PlugIn {
 
     public void setOutputData(int outputData) {
         this.outputData = outputData;
+        plan = null;
+    }
+
+    /**
+     * @return the stages of analysis needed to produce the requested outputs.
+     */
+    AnalysisPlan getPlan() {
+        if (plan == null) {
+            plan = new AnalysisPlan(outputData, getConfig().createMasks, getConfig().wholeImage);
+        }
+        return plan;
+    }
+
+    /**
+     * @return the metrics of the last batch analysed, or null if none has
+     * been.
+     */
+    MetricsRegistry getMetrics() {
+        return metrics;
     }
 
     public ByteProcessor getMaskImage() {
@@ -829,25 +1801,24 @@ public class Batch_Analyser implements PlugIn {
         }
     }
 
-    double generateCurveMap(ArrayList<int[][]> branches, int width, int height, FloatProcessor curveMap, int window) {
+    double generateCurveMap(ArrayList<int[][]> branches, ObjectAnalysis object, int window) {
         if (branches == null) {
             return Double.NaN;
         }
-        if (cumulativeCurveStats == null) {
-            cumulativeCurveStats = new ArrayList();
-            cumulativeCurveStatsLabels = new ArrayList();
+        if (object.curveStats == null) {
+            object.curveStats = new ArrayList();
             for (int c = 0; c < 3; c++) {
-                cumulativeCurveStats.add(new ArrayList<Double>());
+                object.curveStats.add(new ArrayList<Double>());
             }
         }
         SummaryStatistics stats = new SummaryStatistics();
         for (int[][] branch : branches) {
             if (branch.length > 2 * window) {
-                double[] curvature = CurveAnalyser.calcCurvature(branch, window, false, cumulativeCurveStats);
+                double[] curvature = CurveAnalyser.calcCurvature(branch, window, false, object.curveStats);
                 for (int i = 0; i < curvature.length; i++) {
-                    cumulativeCurveStatsLabels.add(imageName);
                     double c = Math.abs(curvature[i]);
-                    curveMap.putPixelValue(branch[i + window][0], branch[i + window][1], c);
+                    object.curvePixels.add(branch[i + window]);
+                    object.curveValues.add(c);
                     stats.addValue(c);
                 }
             }
@@ -856,20 +1827,29 @@ public class Batch_Analyser implements PlugIn {
     }
 
     public boolean[] getOptions() {
-        return new boolean[]{Boolean.parseBoolean(props.getProperty(DefaultParams.PROJ_AREA_LABEL)),
-            Boolean.parseBoolean(props.getProperty(DefaultParams.CIRC_LABEL)),
-            Boolean.parseBoolean(props.getProperty(DefaultParams.MEAN_BRANCH_LABEL)),
-            Boolean.parseBoolean(props.getProperty(DefaultParams.TOT_LENGTH_LABEL)),
-            Boolean.parseBoolean(props.getProperty(DefaultParams.NUM_END_LABEL)),
-            Boolean.parseBoolean(props.getProperty(DefaultParams.NUM_BRANCH_LABEL)),
-            Boolean.parseBoolean(props.getProperty(DefaultParams.FOURIER_FRAC_LABEL)),
-            Boolean.parseBoolean(props.getProperty(DefaultParams.BOX_COUNT_LABEL)),
-            Boolean.parseBoolean(props.getProperty(DefaultParams.LAC_LABEL)),
-            Boolean.parseBoolean(props.getProperty(DefaultParams.CURVE_LABEL))};
-    }
-
-    public static Properties getProps() {
+        return getConfig().getOptions();
+    }
+
+    /**
+     * @return the parameters of this analyser, which may be modified before
+     * a run; changes take effect when the next run starts.
+     */
+    public Properties getProps() {
+        if (props == null) {
+            props = new DefaultParams();
+        }
         return props;
     }
 
+    /**
+     * @return the parameters of the current run or, if no run has started, of
+     * the next.
+     */
+    AnalysisConfig getConfig() {
+        if (config == null) {
+            config = AnalysisConfig.compile(props);
+        }
+        return config;
+    }
+
 }
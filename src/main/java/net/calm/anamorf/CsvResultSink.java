@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.IJ;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Map;
+import net.calm.iaclasslibrary.UtilClasses.GenVariables;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Writes results to a CSV file through a buffer, in the layout previously
+ * exported from ImageJ's results table: a heading row, then a row labelled
+ * with the input directory, then one row per object. Column headings are
+ * taken from the first row written, as all rows of a run share the same
+ * columns. If no rows are written, the file still holds a heading and the
+ * directory row.
+ * <p>
+ * As rows are written before later values are known, each value is
+ * formatted on its own - integral values without decimal places, all others
+ * to three. The results table formatted whole columns alike, so a column
+ * mixing integral and fractional values was previously written entirely to
+ * three decimal places.
+ */
+public class CsvResultSink implements ResultSink {
+
+    /*
+     * Heading of the label column in ImageJ's results table when no other
+     * columns are present
+     */
+    private static final String EMPTY_LABEL_HEAD = "Label";
+    private final CSVPrinter printer;
+    private final String directoryLabel;
+    private boolean headed = false;
+
+    /**
+     * @param directoryLabel label of the row preceding the results, normally
+     * the path of the directory analysed
+     */
+    public CsvResultSink(File file, String directoryLabel) throws IOException {
+        this.directoryLabel = directoryLabel;
+        printer = new CSVPrinter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), GenVariables.ISO)), CSVFormat.EXCEL);
+    }
+
+    public void write(ResultRow row) throws IOException {
+        if (!headed) {
+            printer.print(ResultRow.LABEL_HEAD);
+            for (String heading : row.getValues().keySet()) {
+                printer.print(heading);
+            }
+            printer.println();
+            printer.print(directoryLabel);
+            for (int i = 0; i < row.getValues().size(); i++) {
+                printer.print(format(0.0));
+            }
+            printer.println();
+            headed = true;
+        }
+        printer.print(row.getLabel());
+        for (Map.Entry<String, Double> value : row.getValues().entrySet()) {
+            printer.print(format(value.getValue()));
+        }
+        printer.println();
+    }
+
+    public void flush() throws IOException {
+        printer.flush();
+    }
+
+    public void close() throws IOException {
+        if (!headed) {
+            printer.printRecord(EMPTY_LABEL_HEAD);
+            printer.printRecord(directoryLabel);
+            headed = true;
+        }
+        printer.close();
+    }
+
+    /*
+     * Integral values are shown without decimal places, all others to three
+     * decimal places, as in ImageJ's results table.
+     */
+    static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e9) {
+            return IJ.d2s(value, 0);
+        }
+        return IJ.d2s(value, 3);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events emitted on the hot paths of the analysis, so
+ * that a recording of a batch (for example, one started with
+ * <code>-XX:StartFlightRecording</code>) shows where time was spent and on
+ * which images and objects. Events are created and timed unconditionally, but
+ * their fields are only filled in and the event committed when
+ * {@link Event#shouldCommit()} returns true, so the cost is negligible when no
+ * recording is in progress or the events are disabled.
+ */
+final class FlightEvents {
+
+    private static final String CATEGORY = "AnaMorf";
+
+    private FlightEvents() {
+    }
+
+    @Name("net.calm.anamorf.AnalyseImage")
+    @Label("Analyse Image")
+    @Description("The analysis of one image, from decoding to writing its outputs")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class AnalyseImage extends Event {
+
+        @Label("Image")
+        String image;
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("Objects")
+        int objects;
+        @Label("Abandoned")
+        boolean abandoned;
+    }
+
+    @Name("net.calm.anamorf.ImageStage")
+    @Label("Image Stage")
+    @Description("One stage of the pipeline run on an image")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ImageStage extends Event {
+
+        @Label("Image")
+        String image;
+        @Label("Stage")
+        String stage;
+    }
+
+    @Name("net.calm.anamorf.AnalyseObject")
+    @Label("Analyse Object")
+    @Description("The analysis of one object found in an image")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class AnalyseObject extends Event {
+
+        @Label("Image")
+        String image;
+        @Label("Object Index")
+        int index;
+        @Label("Pixel Area")
+        int pixelArea;
+        @Label("X")
+        int x;
+        @Label("Y")
+        int y;
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("Analysed")
+        @Description("False if the object was rejected")
+        boolean analysed;
+    }
+
+    @Name("net.calm.anamorf.PruneSkeleton")
+    @Label("Prune Skeleton")
+    @Description("The pruning of the skeleton of one object")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class PruneSkeleton extends Event {
+
+        @Label("Image")
+        String image;
+        @Label("Pixel Area")
+        int pixelArea;
+        @Label("X")
+        int x;
+        @Label("Y")
+        int y;
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("Iterations")
+        @Description("Passes over the skeleton in which at least one branch was removed")
+        int iterations;
+        @Label("Pixels Removed")
+        int pixelsRemoved;
+        @Label("Graph Pruning")
+        boolean graphPruning;
+    }
+
+    @Name("net.calm.anamorf.LongestPath")
+    @Label("Longest Path")
+    @Description("The search for the longest path through the skeleton of one object")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class LongestPath extends Event {
+
+        @Label("Image")
+        String image;
+        @Label("Pixel Area")
+        int pixelArea;
+        @Label("X")
+        int x;
+        @Label("Y")
+        int y;
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("Nodes")
+        int nodes;
+        @Label("Edges")
+        int edges;
+        @Label("Sweep Limit Reached")
+        @Description("True if the search gave up before finding the longest path")
+        boolean sweepLimitReached;
+    }
+
+    @Name("net.calm.anamorf.WriteOutput")
+    @Label("Write Output")
+    @Description("The saving of one output image")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class WriteOutput extends Event {
+
+        @Label("File")
+        String file;
+        @Label("Format")
+        String format;
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory and, optionally, its subdirectories for images, using a
+ * {@link WatchService}, and reports each image once it has been completely
+ * written. An image is considered complete once its size and modification
+ * time have not changed for a specified period, so that files still being
+ * written by an acquisition system are not read prematurely. Images already
+ * present when watching begins are reported first, in the order in which
+ * they are enumerated by {@link ImageWalker}, subject to the same check.
+ * Subdirectories created while watching are watched in turn, and any images
+ * already in them are reported. As with {@link ImageWalker}, images are
+ * identified by their path relative to the watched directory, using '/' as
+ * the separator.
+ */
+public class FolderWatcher implements Closeable {
+
+    private final File directory;
+    private final Path root;
+    private final boolean recursive;
+    private final FilenameFilter filter;
+    private final File exclude;
+    private final Path excludePath;
+    private final long stableMillis;
+    private final WatchService watchService;
+    private final HashMap<WatchKey, Path> watched = new HashMap();
+    private final HashSet<String> reported = new HashSet();
+    private final LinkedHashMap<String, long[]> pending = new LinkedHashMap();
+
+    /**
+     * @param directory the directory to watch
+     * @param recursive if true, subdirectories are watched
+     * @param filter selects the files to be reported, given the directory
+     * containing them and their name
+     * @param exclude a directory not to be watched, such as the results
+     * directory, or null
+     * @param stableMillis the time, in milliseconds, for which a file must be
+     * unchanged before it is reported
+     */
+    public FolderWatcher(File directory, boolean recursive, FilenameFilter filter, File exclude, long stableMillis) throws IOException {
+        this.directory = directory;
+        this.root = directory.toPath();
+        this.recursive = recursive;
+        this.filter = filter;
+        this.exclude = exclude;
+        this.excludePath = exclude == null ? null : exclude.toPath().toAbsolutePath().normalize();
+        this.stableMillis = stableMillis;
+        watchService = root.getFileSystem().newWatchService();
+        scan(root);
+    }
+
+    /*
+     * Watches dir and, if recursive, its subdirectories, then adds all files
+     * in them that have not yet been reported to the pending files. Used
+     * initially, when a subdirectory is created and whenever events may have
+     * been lost. Directories are registered before they are listed, so that
+     * no file created in the meantime is missed.
+     */
+    private void scan(Path dir) throws IOException {
+        if (recursive) {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) throws IOException {
+                    if (isExcluded(subdir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    register(subdir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    AnalysisLog.warn("Could not read %s - skipping.", file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } else {
+            register(dir);
+        }
+        String prefix = root.relativize(dir).toString().replace(File.separatorChar, '/');
+        ImageWalker images = new ImageWalker(dir.toFile(), recursive, filter, exclude);
+        while (images.hasNext()) {
+            String name = images.next();
+            update(prefix.isEmpty() ? name : prefix + "/" + name);
+        }
+    }
+
+    private boolean isExcluded(Path dir) {
+        return excludePath != null && excludePath.equals(dir.toAbsolutePath().normalize());
+    }
+
+    private void register(Path dir) throws IOException {
+        WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watched.put(key, dir);
+    }
+
+    private void update(String name) {
+        if (reported.contains(name) || pending.containsKey(name)) {
+            return;
+        }
+        File file = new File(directory, name);
+        if (filter.accept(file.getParentFile(), file.getName())) {
+            pending.put(name, new long[]{-1, -1, 0});
+        }
+    }
+
+    /**
+     * Waits for up to <i>timeout</i> milliseconds for changes to the watched
+     * directories and returns the files that have since become complete. Each
+     * file is only reported once.
+     */
+    public ArrayList<String> poll(long timeout) throws InterruptedException, IOException {
+        WatchKey key;
+        try {
+            key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (ClosedWatchServiceException e) {
+            return new ArrayList();
+        }
+        while (key != null) {
+            Path dir = watched.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    scan(root);
+                } else if (dir != null) {
+                    Path path = dir.resolve((Path) event.context());
+                    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        if (recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && !isExcluded(path)) {
+                            scan(path);
+                        }
+                    } else {
+                        update(root.relativize(path).toString().replace(File.separatorChar, '/'));
+                    }
+                }
+            }
+            /*
+             * Keys of deleted directories are no longer valid
+             */
+            if (!key.reset()) {
+                watched.remove(key);
+            }
+            key = watchService.poll();
+        }
+        return checkPending();
+    }
+
+    /*
+     * Compares the size and modification time of each pending file with
+     * those recorded when it was last checked. Each pending entry holds the
+     * size, the modification time and the time at which either last changed.
+     */
+    private ArrayList<String> checkPending() {
+        ArrayList<String> complete = new ArrayList();
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, long[]>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, long[]> entry = it.next();
+            File file = new File(directory, entry.getKey());
+            long[] state = entry.getValue();
+            long size = file.length(), modified = file.lastModified();
+            if (!file.isFile()) {
+                it.remove();
+            } else if (size != state[0] || modified != state[1]) {
+                state[0] = size;
+                state[1] = modified;
+                state[2] = now;
+            } else if (size > 0 && now - state[2] >= stableMillis) {
+                complete.add(entry.getKey());
+                reported.add(entry.getKey());
+                it.remove();
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * @return the number of files found but not yet complete.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes items through a sequence of stages, each with its own threads,
+ * connected by bounded queues. A stage that falls behind fills its queue, so
+ * that earlier stages - and ultimately the submitting thread - block until it
+ * catches up. Different stages of different items therefore overlap, so that,
+ * for example, images can be read and written while others are analysed.
+ * <p>
+ * The depth of each queue, together with the time each stage spends working,
+ * shows which stage limits throughput.
+ *
+ * @param <T> the type of item processed
+ */
+public class ImagePipeline<T> {
+
+    /**
+     * The work done by a stage on a single item.
+     */
+    public interface StageTask<T> {
+
+        void run(T item) throws Exception;
+    }
+
+    private class Item {
+
+        final T value;
+        final CompletableFuture<T> future;
+
+        Item(T value, CompletableFuture<T> future) {
+            this.value = value;
+            this.future = future;
+        }
+    }
+
+    private class Stage {
+
+        final String name;
+        final int threads;
+        final StageTask<T> task;
+        final ArrayBlockingQueue<Item> queue;
+        final AtomicInteger running;
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicLong busyNanos = new AtomicLong();
+        volatile int maxDepth = 0;
+
+        Stage(String name, int threads, int capacity, StageTask<T> task) {
+            this.name = name;
+            this.threads = threads;
+            this.task = task;
+            this.queue = new ArrayBlockingQueue(capacity);
+            this.running = new AtomicInteger(threads);
+        }
+
+        void put(Item item) throws InterruptedException {
+            queue.put(item);
+            int depth = queue.size();
+            if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+        }
+    }
+
+    private final Item end = new Item(null, null);
+    private final ArrayList<Stage> stages = new ArrayList();
+    private final ArrayList<Thread> workers = new ArrayList();
+    private boolean started = false;
+
+    /**
+     * Adds a stage to the end of the pipeline.
+     *
+     * @param name identifies the stage in summaries
+     * @param threads the number of items the stage processes concurrently
+     * @param capacity the number of items that may wait for the stage
+     */
+    public void addStage(String name, int threads, int capacity, StageTask<T> task) {
+        if (started) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        stages.add(new Stage(name, Math.max(1, threads), Math.max(1, capacity), task));
+    }
+
+    public void start() {
+        started = true;
+        for (int s = 0; s < stages.size(); s++) {
+            Stage stage = stages.get(s);
+            final int index = s;
+            for (int t = 0; t < stage.threads; t++) {
+                Thread worker = new Thread(() -> work(index), String.format("%s-%d", stage.name, t));
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+        }
+    }
+
+    /**
+     * Submits an item to the first stage, waiting if its queue is full.
+     *
+     * @return a future completed once the item has passed through the last
+     * stage, or completed exceptionally if any stage throws an error
+     */
+    public CompletableFuture<T> submit(T item) throws InterruptedException {
+        CompletableFuture<T> future = new CompletableFuture();
+        stages.get(0).put(new Item(item, future));
+        return future;
+    }
+
+    /**
+     * Stops the pipeline once all items already submitted have passed
+     * through every stage.
+     */
+    public void shutdown() throws InterruptedException {
+        Stage first = stages.get(0);
+        for (int t = 0; t < first.threads; t++) {
+            first.put(end);
+        }
+    }
+
+    /**
+     * Stops the pipeline immediately, abandoning any items in progress.
+     */
+    public void shutdownNow() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Stage stage : stages) {
+            for (Item item : stage.queue) {
+                if (item != end) {
+                    item.future.cancel(false);
+                }
+            }
+            stage.queue.clear();
+        }
+    }
+
+    private void work(int index) {
+        Stage stage = stages.get(index);
+        Stage next = index + 1 < stages.size() ? stages.get(index + 1) : null;
+        try {
+            while (true) {
+                Item item = stage.queue.take();
+                if (item == end) {
+                    /*
+                     * The last thread of this stage to finish passes the end
+                     * of input on to every thread of the next stage
+                     */
+                    if (stage.running.decrementAndGet() == 0 && next != null) {
+                        for (int t = 0; t < next.threads; t++) {
+                            next.put(end);
+                        }
+                    }
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    stage.task.run(item.value);
+                } catch (Throwable t) {
+                    item.future.completeExceptionally(t);
+                    continue;
+                } finally {
+                    stage.busyNanos.addAndGet(System.nanoTime() - start);
+                    stage.processed.incrementAndGet();
+                }
+                if (next != null) {
+                    next.put(item);
+                } else {
+                    item.future.complete(item.value);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of items waiting for each stage, in order.
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[stages.size()];
+        for (int s = 0; s < depths.length; s++) {
+            depths[s] = stages.get(s).queue.size();
+        }
+        return depths;
+    }
+
+    /**
+     * @return the greatest number of items that have waited for each stage,
+     * in order.
+     */
+    public int[] getMaxQueueDepths() {
+        int[] depths = new int[stages.size()];
+        for (int s = 0; s < depths.length; s++) {
+            depths[s] = stages.get(s).maxDepth;
+        }
+        return depths;
+    }
+
+    /**
+     * @return the time, in seconds, that the threads of each stage have spent
+     * processing items, in order.
+     */
+    public double[] getBusySeconds() {
+        double[] busy = new double[stages.size()];
+        for (int s = 0; s < busy.length; s++) {
+            busy[s] = stages.get(s).busyNanos.get() / 1.0e9;
+        }
+        return busy;
+    }
+
+    /**
+     * @return one line per stage giving its threads, the items it has
+     * processed, the time spent processing them, and the current and maximum
+     * depths of its queue.
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : stages) {
+            sb.append(String.format("%s: %d thread(s), %d item(s), %.3f s busy, queue %d (max %d)%n",
+                    stage.name, stage.threads, stage.processed.get(), stage.busyNanos.get() / 1.0e9,
+                    stage.queue.size(), stage.maxDepth));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily enumerates the images in a directory and, optionally, its
+ * subdirectories. Only one directory is listed at a time, so enumeration of a
+ * large tree can proceed alongside the analysis of the images already found.
+ * Entries are visited depth-first, in filename order within each directory,
+ * so the order of enumeration is the same from one run to the next. Images
+ * are identified by their path relative to the root directory, using '/' as
+ * the separator.
+ */
+public class ImageWalker implements Iterator<String> {
+
+    private final Path root;
+    private final boolean recursive;
+    private final FilenameFilter filter;
+    private final Path exclude;
+    private final ArrayDeque<Iterator<Path>> stack = new ArrayDeque();
+    private String next;
+
+    /**
+     * @param root the directory to search
+     * @param recursive if true, subdirectories are searched
+     * @param filter selects images, given the directory containing them and
+     * their name
+     * @param exclude a directory not to be searched, such as the results
+     * directory, or null
+     */
+    public ImageWalker(File root, boolean recursive, FilenameFilter filter, File exclude) {
+        this.root = root.toPath();
+        this.recursive = recursive;
+        this.filter = filter;
+        this.exclude = exclude == null ? null : exclude.toPath().toAbsolutePath().normalize();
+        stack.push(list(this.root));
+        advance();
+    }
+
+    /**
+     * Creates a filter that accepts files matching a glob pattern. Patterns
+     * containing '/' are matched against the path of a file relative to
+     * <i>root</i>, others against its name alone, so that "*.png" matches
+     * images at any depth.
+     */
+    public static FilenameFilter globFilter(File root, String glob) {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        boolean relative = glob.contains("/");
+        Path rootPath = root.toPath();
+        return (dir, name) -> {
+            Path path = new File(dir, name).toPath();
+            return matcher.matches(relative ? rootPath.relativize(path) : path.getFileName());
+        };
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    public String next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        String current = next;
+        advance();
+        return current;
+    }
+
+    private void advance() {
+        next = null;
+        while (!stack.isEmpty()) {
+            Iterator<Path> entries = stack.peek();
+            if (!entries.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Path path = entries.next();
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (recursive && (exclude == null || !exclude.equals(path.toAbsolutePath().normalize()))) {
+                    stack.push(list(path));
+                }
+            } else if (Files.isRegularFile(path) && filter.accept(path.getParent().toFile(), path.getFileName().toString())) {
+                next = root.relativize(path).toString().replace(File.separatorChar, '/');
+                return;
+            }
+        }
+    }
+
+    /*
+     * Lists a single directory in filename order. Directories that cannot be
+     * read are skipped.
+     */
+    private Iterator<Path> list(Path dir) {
+        ArrayList<Path> entries = new ArrayList();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        } catch (IOException e) {
+            AnalysisLog.warn("Could not read %s - skipping.", dir);
+        }
+        entries.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+        return entries.iterator();
+    }
+}
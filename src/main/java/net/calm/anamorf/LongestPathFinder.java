@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Finds the longest shortest path between two end-points of a skeleton (the
+ * diameter of its graph). Each edge is weighted by the number of pixels
+ * needed to traverse it. For skeletons without loops, the diameter is found
+ * with two linear-time sweeps. For skeletons with loops, single-source
+ * searches from end-points are repeated, using the distances already found to
+ * bound the eccentricity of the remaining end-points and discard those that
+ * cannot lie on a longer path. At most {@link #MAX_SWEEPS} searches are
+ * performed per connected component, after which the longest path found so
+ * far is returned.
+ */
+public class LongestPathFinder {
+
+    public static final int MAX_SWEEPS = 32;
+    private static final long UNREACHED = Long.MAX_VALUE;
+
+    private final SkeletonGraph graph;
+    private final ArrayList<SkeletonGraph.Vertex> vertices;
+    private final long[] dist;
+    private final SkeletonGraph.Edge[] pred;
+    private long[] heap = new long[64];
+    private int heapSize = 0;
+    private int start = -1, end = -1;
+    private long length = -1;
+    private int nodeCount = 0, edgeCount = 0;
+    private boolean sweepLimitReached = false;
+
+    public LongestPathFinder(SkeletonGraph graph) {
+        this.graph = graph;
+        vertices = graph.getVertices();
+        dist = new long[vertices.size()];
+        pred = new SkeletonGraph.Edge[vertices.size()];
+    }
+
+    /**
+     * Finds the longest shortest path between two end-points of the graph.
+     *
+     * @param xOffset added to the x-coordinates of the output
+     * @param yOffset added to the y-coordinates of the output
+     * @return the coordinates of the pixels along the path, in order from one
+     * end-point to the other, or null if the graph contains no path between
+     * end-points
+     */
+    public int[][] findLongestPath(int xOffset, int yOffset) {
+        int n = vertices.size();
+        int[] component = new int[n];
+        Arrays.fill(component, -1);
+        int[] stack = new int[n];
+        ArrayList<Integer> members = new ArrayList();
+        for (int v = 0; v < n; v++) {
+            if (component[v] >= 0 || vertices.get(v).isRemoved()) {
+                continue;
+            }
+            /*
+             * Collect the connected component containing v, counting its
+             * vertices and edges to determine whether it is a tree
+             */
+            members.clear();
+            int top = 0, edgeEnds = 0;
+            boolean hasEnd = false;
+            stack[top++] = v;
+            component[v] = v;
+            while (top > 0) {
+                SkeletonGraph.Vertex u = vertices.get(stack[--top]);
+                members.add(u.getId());
+                hasEnd |= u.getType() == SkeletonGraph.END;
+                for (SkeletonGraph.Edge e : u.getEdges()) {
+                    edgeEnds++;
+                    int w = e.opposite(u).getId();
+                    if (component[w] < 0) {
+                        component[w] = v;
+                        stack[top++] = w;
+                    }
+                }
+            }
+            nodeCount += members.size();
+            edgeCount += edgeEnds / 2;
+            if (!hasEnd || edgeEnds == 0) {
+                continue;
+            }
+            if (edgeEnds / 2 == members.size() - 1) {
+                sweepTree(members);
+            } else {
+                searchCyclic(members);
+            }
+        }
+        if (start < 0) {
+            return null;
+        }
+        shortestPaths(start);
+        return tracePath(xOffset, yOffset);
+    }
+
+    /*
+     * In a tree, the end-point farthest from any vertex is one end of a
+     * longest path, so two traversals suffice.
+     */
+    private void sweepTree(ArrayList<Integer> members) {
+        int s = -1;
+        for (int v : members) {
+            if (vertices.get(v).getType() == SkeletonGraph.END) {
+                s = v;
+                break;
+            }
+        }
+        int a = traverseTree(s, members);
+        int b = traverseTree(a, members);
+        update(a, b, dist[b]);
+    }
+
+    /*
+     * Computes the distances from s to all vertices of a tree by depth-first
+     * traversal and returns the farthest end-point.
+     */
+    private int traverseTree(int s, ArrayList<Integer> members) {
+        for (int v : members) {
+            dist[v] = UNREACHED;
+        }
+        int[] stack = new int[members.size()];
+        int top = 0, farthest = s;
+        dist[s] = 0;
+        stack[top++] = s;
+        while (top > 0) {
+            SkeletonGraph.Vertex u = vertices.get(stack[--top]);
+            long d = dist[u.getId()];
+            if (u.getType() == SkeletonGraph.END && d > dist[farthest]) {
+                farthest = u.getId();
+            }
+            for (SkeletonGraph.Edge e : u.getEdges()) {
+                int w = e.opposite(u).getId();
+                if (dist[w] == UNREACHED) {
+                    dist[w] = d + weight(e);
+                    stack[top++] = w;
+                }
+            }
+        }
+        return farthest;
+    }
+
+    /*
+     * Bounds the eccentricity of each end-point from the searches performed
+     * so far and only searches from end-points whose upper bound exceeds the
+     * longest path found, alternating between the smallest lower bound and the
+     * largest upper bound.
+     */
+    private void searchCyclic(ArrayList<Integer> members) {
+        ArrayList<Integer> candidates = new ArrayList();
+        for (int v : members) {
+            if (vertices.get(v).getType() == SkeletonGraph.END) {
+                candidates.add(v);
+            }
+        }
+        long[] lower = new long[vertices.size()];
+        long[] upper = new long[vertices.size()];
+        for (int v : candidates) {
+            upper[v] = UNREACHED;
+        }
+        long best = -1;
+        int s = candidates.get(0);
+        boolean highest = false;
+        for (int sweep = 0; sweep < MAX_SWEEPS && !candidates.isEmpty(); sweep++) {
+            shortestPaths(s);
+            int farthest = s;
+            for (int v : members) {
+                if (vertices.get(v).getType() == SkeletonGraph.END && dist[v] != UNREACHED
+                        && dist[v] > dist[farthest]) {
+                    farthest = v;
+                }
+            }
+            long ecc = dist[farthest];
+            if (ecc > best) {
+                best = ecc;
+                update(s, farthest, ecc);
+            }
+            ArrayList<Integer> remaining = new ArrayList();
+            for (int v : candidates) {
+                if (v == s) {
+                    continue;
+                }
+                lower[v] = Math.max(lower[v], Math.max(dist[v], ecc - dist[v]));
+                upper[v] = Math.min(upper[v], ecc + dist[v]);
+                if (upper[v] > best) {
+                    remaining.add(v);
+                }
+            }
+            candidates = remaining;
+            if (candidates.isEmpty()) {
+                break;
+            }
+            s = candidates.get(0);
+            for (int v : candidates) {
+                if (highest ? upper[v] > upper[s] : lower[v] < lower[s]) {
+                    s = v;
+                }
+            }
+            highest = !highest;
+        }
+        sweepLimitReached |= !candidates.isEmpty();
+    }
+
+    /**
+     * @return the number of vertices of the graph searched by
+     * {@link #findLongestPath(int, int)}.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of edges of the graph searched by
+     * {@link #findLongestPath(int, int)}.
+     */
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return true if the search of any connected component was stopped after
+     * {@link #MAX_SWEEPS} searches, in which case the path returned may not be
+     * the longest.
+     */
+    public boolean isSweepLimitReached() {
+        return sweepLimitReached;
+    }
+
+    /*
+     * Dijkstra's algorithm from vertex s, recording the edge by which each
+     * vertex was reached. Queue entries pack the distance and the vertex into
+     * a single long, so that they can be held in a primitive binary heap.
+     */
+    private void shortestPaths(int s) {
+        Arrays.fill(dist, UNREACHED);
+        Arrays.fill(pred, null);
+        dist[s] = 0;
+        heapSize = 0;
+        push((long) s);
+        while (heapSize > 0) {
+            long head = pop();
+            long d = head >>> 32;
+            int id = (int) head;
+            if (d > dist[id]) {
+                continue;
+            }
+            SkeletonGraph.Vertex u = vertices.get(id);
+            for (SkeletonGraph.Edge e : u.getEdges()) {
+                int w = e.opposite(u).getId();
+                long dw = d + weight(e);
+                if (dw < dist[w]) {
+                    dist[w] = dw;
+                    pred[w] = e;
+                    push(dw << 32 | w);
+                }
+            }
+        }
+    }
+
+    private void push(long entry) {
+        if (heapSize >= heap.length) {
+            heap = Arrays.copyOf(heap, 2 * heap.length);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heap[parent] <= entry) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= last) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    private void update(int a, int b, long d) {
+        if (d > length) {
+            length = d;
+            start = a;
+            end = b;
+        }
+    }
+
+    private long weight(SkeletonGraph.Edge e) {
+        return e.getLength() + 1;
+    }
+
+    /*
+     * Assembles the pixels along the path from start to end, using the
+     * predecessors recorded by the last search from start. Only those pixels
+     * of a junction needed to keep the path connected are included.
+     */
+    private int[][] tracePath(int xOffset, int yOffset) {
+        ArrayList<SkeletonGraph.Edge> steps = new ArrayList();
+        SkeletonGraph.Vertex v = vertices.get(end);
+        while (pred[v.getId()] != null) {
+            SkeletonGraph.Edge e = pred[v.getId()];
+            steps.add(e);
+            v = e.opposite(v);
+        }
+        Collections.reverse(steps);
+        int width = graph.getWidth();
+        ArrayList<Integer> pixels = new ArrayList();
+        v = vertices.get(start);
+        for (SkeletonGraph.Edge e : steps) {
+            int[] edgePixels = e.getPixelsFrom(v);
+            int next = edgePixels.length > 0 ? edgePixels[0] : e.opposite(v).getIndex();
+            addVertexPixels(v, pixels, next, width);
+            for (int p : edgePixels) {
+                pixels.add(p);
+            }
+            v = e.opposite(v);
+        }
+        addVertexPixels(v, pixels, -1, width);
+        int[][] path = new int[pixels.size()][];
+        for (int i = 0; i < path.length; i++) {
+            int p = pixels.get(i);
+            path[i] = new int[]{p % width + xOffset, p / width + yOffset};
+        }
+        return path;
+    }
+
+    /*
+     * Adds the pixels of vertex v that join the last pixel added to the next
+     * pixel of the path, taking the shortest route through a junction.
+     */
+    private void addVertexPixels(SkeletonGraph.Vertex v, ArrayList<Integer> pixels, int next, int width) {
+        int[] cluster = v.getPixels();
+        int prev = pixels.isEmpty() ? -1 : pixels.get(pixels.size() - 1);
+        int in = 0, out = -1;
+        for (int i = 0; i < cluster.length; i++) {
+            if (prev >= 0 && isAdjacent(cluster[i], prev, width)) {
+                in = i;
+                break;
+            }
+        }
+        if (next >= 0) {
+            for (int i = 0; i < cluster.length; i++) {
+                if (isAdjacent(cluster[i], next, width)) {
+                    out = i;
+                    break;
+                }
+            }
+        }
+        if (out < 0 || out == in) {
+            pixels.add(cluster[in]);
+            return;
+        }
+        int[] from = new int[cluster.length];
+        Arrays.fill(from, -1);
+        int[] queue = new int[cluster.length];
+        int head = 0, tail = 0;
+        queue[tail++] = in;
+        from[in] = in;
+        while (head < tail && from[out] < 0) {
+            int i = queue[head++];
+            for (int j = 0; j < cluster.length; j++) {
+                if (from[j] < 0 && isAdjacent(cluster[i], cluster[j], width)) {
+                    from[j] = i;
+                    queue[tail++] = j;
+                }
+            }
+        }
+        int size = pixels.size();
+        for (int i = out; i != in; i = from[i]) {
+            pixels.add(size, cluster[i]);
+        }
+        pixels.add(size, cluster[in]);
+    }
+
+    private boolean isAdjacent(int p, int q, int width) {
+        return Math.abs(p % width - q % width) <= 1 && Math.abs(p / width - q / width) <= 1;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.io.FileInfo;
+import ij.io.Opener;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Limits the images analysed concurrently to those whose combined memory
+ * requirement fits within a fixed budget. The peak footprint of each image is
+ * estimated, before it is decoded, from the dimensions recorded in its header
+ * and the buffers allocated by the stages of the {@link AnalysisPlan}. Many
+ * small images may therefore be analysed at once, while an image whose
+ * estimate exceeds the budget is only analysed once all others have
+ * completed, and blocks any more from starting until it has completed
+ * itself.
+ * <p>
+ * The budget is divided into permits of one megabyte. Permits are granted in
+ * the order in which they are requested, so large images are not starved by
+ * a stream of small ones.
+ */
+public class MemoryBudget {
+
+    private static final long MB = 1024 * 1024;
+    private final Semaphore permits;
+    private final int totalPermits;
+    private final long bytesPerPixel;
+    private final boolean expandsInput;
+
+    /**
+     * @param budget the memory, in bytes, available for analysing images
+     * @param plan the stages of the analysis to be run
+     * @param preProcess true if images are to be pre-processed, rather than
+     * being binary already
+     * @param createMasks true if output images are to be saved
+     * @param wholeImage true if the image is to be analysed as a single object
+     * @param objectThreads the number of objects of an image analysed at once
+     */
+    public MemoryBudget(long budget, AnalysisPlan plan, boolean preProcess, boolean createMasks, boolean wholeImage, int objectThreads) {
+        this.totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / MB));
+        this.permits = new Semaphore(totalPermits, true);
+        this.expandsInput = preProcess;
+        /*
+         * Bytes per pixel of the full-frame buffers allocated after decoding,
+         * excluding the input itself - pre-processing works on a duplicate of
+         * the input, which may be converted to 16-bit and thresholded into
+         * 8-bit copies, while segmentation labels a filled copy of the binary
+         * image with 32-bit labels
+         */
+        long perPixel = preProcess ? 6 : 1;
+        perPixel += 5;
+        if (plan.includes(AnalysisPlan.MASK)) {
+            perPixel += 1;
+        }
+        if (createMasks) {
+            perPixel += 1;
+        }
+        if (wholeImage) {
+            perPixel += 1;
+        }
+        if (plan.includes(AnalysisPlan.CURVE_MAP)) {
+            perPixel += 4;
+        }
+        if (plan.includes(AnalysisPlan.SKELETON_OVERLAY)) {
+            perPixel += 4;
+        }
+        if (plan.includes(AnalysisPlan.FOURIER)) {
+            perPixel += objectThreads;
+        }
+        this.bytesPerPixel = perPixel;
+    }
+
+    /**
+     * @return a budget of three quarters of the maximum heap size, leaving the
+     * remainder for results and the objects of images being analysed
+     */
+    public static long getDefaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 4 * 3;
+    }
+
+    /**
+     * Estimates the peak memory required to analyse <i>image</i>.
+     *
+     * @return the estimate in bytes, or a negative value if the dimensions of
+     * the image cannot be determined from its header
+     */
+    public long estimate(File image) {
+        long[] dims = readDimensions(image);
+        if (dims == null) {
+            return -1;
+        }
+        long pixels = dims[0] * dims[1];
+        long input = pixels * dims[2] * dims[3];
+        return input + (expandsInput ? pixels * dims[2] : 0) + pixels * bytesPerPixel;
+    }
+
+    /**
+     * Blocks until there is room within the budget to analyse <i>image</i>.
+     * An image whose requirement cannot be estimated, or exceeds the whole
+     * budget, is granted the whole budget.
+     *
+     * @return the number of permits granted, to be returned with
+     * {@link #release(int)} once the image has been analysed
+     */
+    public int acquire(File image) throws InterruptedException {
+        long bytes = estimate(image);
+        int required = bytes < 0 ? totalPermits : (int) Math.max(1, Math.min(totalPermits, (bytes + MB - 1) / MB));
+        permits.acquire(required);
+        return required;
+    }
+
+    public void release(int granted) {
+        permits.release(granted);
+    }
+
+    /**
+     * @return the budget, in megabytes
+     */
+    public int getSize() {
+        return totalPermits;
+    }
+
+    /**
+     * @return the part of the budget, in megabytes, not currently granted
+     */
+    public int getAvailable() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Reads the dimensions of an image from its header, without decoding it.
+     * TIFF headers are read with ImageJ, which decodes TIFFs itself, and all
+     * other formats with ImageIO.
+     *
+     * @return the width, height and bytes per pixel of the image, and the
+     * number of planes of that size held while it is decoded, or null if the
+     * header cannot be read
+     */
+    static long[] readDimensions(File image) {
+        String name = image.getName().toLowerCase();
+        if (name.endsWith(".tif") || name.endsWith(".tiff")) {
+            FileInfo[] info = new Opener().getTiffFileInfo(image.getPath());
+            if (info == null || info.length < 1) {
+                return null;
+            }
+            int slices = info.length > 1 ? info.length : Math.max(1, info[0].nImages);
+            return new long[]{info[0].width, info[0].height, info[0].getBytesPerPixel(), slices};
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(image)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                /*
+                 * ImageJ holds multi-band images as 32-bit RGB, and decodes
+                 * via an intermediate image of the same size
+                 */
+                ImageTypeSpecifier type = reader.getRawImageType(0);
+                long bytes = 4;
+                if (type != null && type.getNumBands() == 1) {
+                    bytes = (type.getSampleModel().getSampleSize(0) + 7) / 8;
+                }
+                return new long[]{reader.getWidth(0), reader.getHeight(0), bytes, 2};
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects counters and latency histograms for each stage of the analysis of
+ * a batch, together with the time each image spent in each stage, and writes
+ * them to the results directory at the end of the batch as
+ * <code>metrics.json</code> and, in the Prometheus text exposition format,
+ * <code>metrics.prom</code>.
+ * <p>
+ * Image stages are timed once per image and object stages once per object.
+ * Object stages run within the analyse stage of their image, so their times
+ * are included in it. All methods may be called concurrently.
+ */
+public class MetricsRegistry {
+
+    public static final String JSON_FILENAME = "metrics.json", PROMETHEUS_FILENAME = "metrics.prom";
+
+    public enum Stage {
+        DECODE("decode", false),
+        PRE_PROCESS("pre_process", false),
+        SEGMENT("segment", false),
+        ANALYSE("analyse", false),
+        OBJECT("object", true),
+        LACUNARITY("lacunarity", true),
+        SKELETONISE("skeletonise", true),
+        PRUNE("prune", true),
+        LONGEST_PATH("longest_path", true),
+        CURVE_MAP("curve_map", true),
+        FOURIER("fourier", true),
+        BOX_COUNT("box_count", true),
+        WRITE("write", false);
+
+        final String id;
+        final boolean perObject;
+
+        Stage(String id, boolean perObject) {
+            this.id = id;
+            this.perObject = perObject;
+        }
+    }
+
+    public enum Counter {
+        IMAGES_ANALYSED("images_analysed"),
+        IMAGES_FAILED("images_failed"),
+        IMAGES_RESUMED("images_resumed"),
+        OBJECTS_FOUND("objects_found"),
+        OBJECTS_ANALYSED("objects_analysed"),
+        OBJECTS_REJECTED("objects_rejected");
+
+        final String id;
+
+        Counter(String id) {
+            this.id = id;
+        }
+    }
+
+    /*
+     * Upper bounds of the histogram buckets, in seconds
+     */
+    private static final double[] BOUNDS = {0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005,
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000};
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUNDS_NANOS[i] = Math.round(BOUNDS[i] * 1.0e9);
+        }
+    }
+
+    private static class Timer {
+
+        final LongAdder count = new LongAdder();
+        final LongAdder sumNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+        void record(long nanos) {
+            count.increment();
+            sumNanos.add(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            int b = 0;
+            while (b < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[b]) {
+                b++;
+            }
+            buckets.incrementAndGet(b);
+        }
+    }
+
+    /**
+     * The time spent in each stage on a single image, including the object
+     * stages of all of its objects.
+     */
+    public static class ImageTimings {
+
+        final String image;
+        final long start = System.nanoTime();
+        final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+        final AtomicInteger objects = new AtomicInteger();
+        long elapsedNanos;
+        boolean failed;
+
+        ImageTimings(String image) {
+            this.image = image;
+        }
+    }
+
+    private final Timer[] timers = new Timer[Stage.values().length];
+    private final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private final ConcurrentLinkedQueue<ImageTimings> images = new ConcurrentLinkedQueue();
+    private final long startNanos = System.nanoTime();
+    private final Date started = new Date();
+    private long elapsedNanos = -1;
+    private String[] pipelineStages;
+    private int[] maxQueueDepths;
+    private double[] busySeconds;
+    private long[] queueDepthSums;
+    private long queueSamples = 0;
+
+    public MetricsRegistry() {
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Timer();
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the timings of a single image, to be passed to
+     * {@link #record} and {@link #finishImage}
+     */
+    public ImageTimings startImage(String image) {
+        return new ImageTimings(image);
+    }
+
+    /**
+     * Records the time since <i>startNanos</i>, as given by
+     * {@link System#nanoTime()}, as one execution of <i>stage</i>.
+     *
+     * @param image the image to which the time is attributed, or null
+     */
+    public void record(ImageTimings image, Stage stage, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        timers[stage.ordinal()].record(nanos);
+        if (image != null) {
+            image.stageNanos.addAndGet(stage.ordinal(), nanos);
+            if (stage == Stage.OBJECT) {
+                image.objects.incrementAndGet();
+            }
+        }
+    }
+
+    public void finishImage(ImageTimings image, boolean failed) {
+        image.elapsedNanos = System.nanoTime() - image.start;
+        image.failed = failed;
+        images.add(image);
+        increment(failed ? Counter.IMAGES_FAILED : Counter.IMAGES_ANALYSED);
+    }
+
+    public void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+
+    public void add(Counter counter, long n) {
+        counters[counter.ordinal()].add(n);
+    }
+
+    /**
+     * @return the current value of <i>counter</i>.
+     */
+    public long getCount(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * @return the total time, in seconds, spent in <i>stage</i> on all
+     * threads.
+     */
+    public double getTotalSeconds(Stage stage) {
+        return seconds(timers[stage.ordinal()].sumNanos.sum());
+    }
+
+    /**
+     * @return the time, in seconds, from the creation of this registry to the
+     * end of the batch or, if the batch has not finished, to now.
+     */
+    public synchronized double getElapsedSeconds() {
+        return seconds(elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds a sample of the depth of each queue of the pipeline, from which
+     * the mean depths are reported.
+     */
+    public synchronized void sampleQueueDepths(int[] depths) {
+        if (depths == null) {
+            return;
+        }
+        if (queueDepthSums == null) {
+            queueDepthSums = new long[depths.length];
+        }
+        for (int i = 0; i < depths.length && i < queueDepthSums.length; i++) {
+            queueDepthSums[i] += depths[i];
+        }
+        queueSamples++;
+    }
+
+    /**
+     * Records the final state of the pipeline through which the images were
+     * analysed.
+     */
+    public synchronized void recordPipeline(String[] stageNames, ImagePipeline<?> pipeline) {
+        this.pipelineStages = stageNames.clone();
+        this.maxQueueDepths = pipeline.getMaxQueueDepths();
+        this.busySeconds = pipeline.getBusySeconds();
+    }
+
+    /**
+     * Marks the end of the batch. Later records are still reported, but do
+     * not extend the elapsed time.
+     */
+    public synchronized void finish() {
+        if (elapsedNanos < 0) {
+            elapsedNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Writes <code>metrics.json</code> and <code>metrics.prom</code> to
+     * <i>directory</i>.
+     */
+    public synchronized void write(File directory) throws IOException {
+        finish();
+        writeFile(new File(directory, JSON_FILENAME), toJson());
+        writeFile(new File(directory, PROMETHEUS_FILENAME), toPrometheus());
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write(content);
+        }
+    }
+
+    synchronized String toJson() {
+        StringBuilder sb = new StringBuilder();
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        sb.append("{\n  \"started\": ");
+        NdjsonResultSink.appendString(sb, iso.format(started));
+        sb.append(",\n  \"elapsedSeconds\": ").append(seconds(elapsedNanos));
+        sb.append(",\n  \"counters\": {");
+        for (Counter counter : Counter.values()) {
+            sb.append(counter.ordinal() > 0 ? "," : "").append("\n    \"").append(counter.id).append("\": ")
+                    .append(counters[counter.ordinal()].sum());
+        }
+        sb.append("\n  },\n  \"stages\": {");
+        for (Stage stage : Stage.values()) {
+            Timer timer = timers[stage.ordinal()];
+            long count = timer.count.sum();
+            long sum = timer.sumNanos.sum();
+            sb.append(stage.ordinal() > 0 ? "," : "").append("\n    \"").append(stage.id).append("\": {")
+                    .append("\"per\": \"").append(stage.perObject ? "object" : "image").append('"')
+                    .append(", \"count\": ").append(count)
+                    .append(", \"totalSeconds\": ").append(seconds(sum))
+                    .append(", \"meanSeconds\": ").append(count > 0 ? seconds(sum / count) : 0.0)
+                    .append(", \"maxSeconds\": ").append(seconds(timer.maxNanos.get()))
+                    .append(", \"buckets\": [");
+            long cumulative = 0;
+            for (int b = 0; b <= BOUNDS.length; b++) {
+                cumulative += timer.buckets.get(b);
+                sb.append(b > 0 ? ", " : "").append("{\"le\": ")
+                        .append(b < BOUNDS.length ? String.valueOf(BOUNDS[b]) : "\"+Inf\"")
+                        .append(", \"count\": ").append(cumulative).append('}');
+            }
+            sb.append("]}");
+        }
+        sb.append("\n  }");
+        if (pipelineStages != null) {
+            sb.append(",\n  \"pipeline\": {");
+            for (int s = 0; s < pipelineStages.length; s++) {
+                sb.append(s > 0 ? "," : "").append("\n    ");
+                NdjsonResultSink.appendString(sb, pipelineStages[s]);
+                sb.append(": {\"busySeconds\": ").append(busySeconds[s])
+                        .append(", \"maxQueueDepth\": ").append(maxQueueDepths[s])
+                        .append(", \"meanQueueDepth\": ").append(getMeanQueueDepth(s)).append('}');
+            }
+            sb.append("\n  }");
+        }
+        /*
+         * Slowest images first
+         */
+        ArrayList<ImageTimings> sorted = new ArrayList(images);
+        sorted.sort((a, b) -> Long.compare(b.elapsedNanos, a.elapsedNanos));
+        sb.append(",\n  \"images\": [");
+        for (int i = 0; i < sorted.size(); i++) {
+            ImageTimings image = sorted.get(i);
+            sb.append(i > 0 ? "," : "").append("\n    {\"image\": ");
+            NdjsonResultSink.appendString(sb, image.image);
+            sb.append(", \"failed\": ").append(image.failed)
+                    .append(", \"objects\": ").append(image.objects.get())
+                    .append(", \"elapsedSeconds\": ").append(seconds(image.elapsedNanos))
+                    .append(", \"stageSeconds\": {");
+            boolean first = true;
+            for (Stage stage : Stage.values()) {
+                long nanos = image.stageNanos.get(stage.ordinal());
+                if (nanos > 0) {
+                    sb.append(first ? "" : ", ").append('"').append(stage.id).append("\": ").append(seconds(nanos));
+                    first = false;
+                }
+            }
+            sb.append("}}");
+        }
+        sb.append("\n  ]\n}\n");
+        return sb.toString();
+    }
+
+    synchronized String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP anamorf_elapsed_seconds Wall-clock time of the batch.\n");
+        sb.append("# TYPE anamorf_elapsed_seconds gauge\n");
+        sb.append("anamorf_elapsed_seconds ").append(seconds(elapsedNanos)).append('\n');
+        for (Counter counter : Counter.values()) {
+            String name = "anamorf_" + counter.id + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(counters[counter.ordinal()].sum()).append('\n');
+        }
+        sb.append("# HELP anamorf_stage_seconds Time spent in each stage, per image or per object.\n");
+        sb.append("# TYPE anamorf_stage_seconds histogram\n");
+        for (Stage stage : Stage.values()) {
+            Timer timer = timers[stage.ordinal()];
+            String labels = "stage=\"" + stage.id + "\",per=\"" + (stage.perObject ? "object" : "image") + "\"";
+            long cumulative = 0;
+            for (int b = 0; b <= BOUNDS.length; b++) {
+                cumulative += timer.buckets.get(b);
+                sb.append("anamorf_stage_seconds_bucket{").append(labels).append(",le=\"")
+                        .append(b < BOUNDS.length ? String.valueOf(BOUNDS[b]) : "+Inf")
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append("anamorf_stage_seconds_sum{").append(labels).append("} ").append(seconds(timer.sumNanos.sum())).append('\n');
+            sb.append("anamorf_stage_seconds_count{").append(labels).append("} ").append(timer.count.sum()).append('\n');
+        }
+        if (pipelineStages != null) {
+            sb.append("# HELP anamorf_pipeline_busy_seconds Time the threads of each pipeline stage spent working.\n");
+            sb.append("# TYPE anamorf_pipeline_busy_seconds gauge\n");
+            for (int s = 0; s < pipelineStages.length; s++) {
+                sb.append("anamorf_pipeline_busy_seconds{stage=\"").append(pipelineStages[s]).append("\"} ").append(busySeconds[s]).append('\n');
+            }
+            sb.append("# HELP anamorf_pipeline_queue_depth_max Greatest number of images waiting for each pipeline stage.\n");
+            sb.append("# TYPE anamorf_pipeline_queue_depth_max gauge\n");
+            for (int s = 0; s < pipelineStages.length; s++) {
+                sb.append("anamorf_pipeline_queue_depth_max{stage=\"").append(pipelineStages[s]).append("\"} ").append(maxQueueDepths[s]).append('\n');
+            }
+            sb.append("# HELP anamorf_pipeline_queue_depth_mean Mean number of images waiting for each pipeline stage.\n");
+            sb.append("# TYPE anamorf_pipeline_queue_depth_mean gauge\n");
+            for (int s = 0; s < pipelineStages.length; s++) {
+                sb.append("anamorf_pipeline_queue_depth_mean{stage=\"").append(pipelineStages[s]).append("\"} ").append(getMeanQueueDepth(s)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private double getMeanQueueDepth(int stage) {
+        if (queueSamples == 0 || queueDepthSums == null || stage >= queueDepthSums.length) {
+            return 0.0;
+        }
+        return (double) queueDepthSums[stage] / queueSamples;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1.0e9;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import net.calm.iaclasslibrary.UtilClasses.GenVariables;
+
+/**
+ * Writes results as newline-delimited JSON - one object per row, keyed by
+ * column heading. Values are written at full precision, with undefined
+ * values written as null.
+ */
+public class NdjsonResultSink implements ResultSink {
+
+    private final Writer writer;
+    private final StringBuilder line = new StringBuilder();
+
+    public NdjsonResultSink(File file) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), GenVariables.UTF8));
+    }
+
+    public void write(ResultRow row) throws IOException {
+        line.setLength(0);
+        line.append('{');
+        appendString(line, ResultRow.LABEL_HEAD);
+        line.append(':');
+        appendString(line, row.getLabel());
+        for (Map.Entry<String, Double> value : row.getValues().entrySet()) {
+            line.append(',');
+            appendString(line, value.getKey());
+            line.append(':');
+            double v = value.getValue();
+            if (Double.isNaN(v) || Double.isInfinite(v)) {
+                line.append("null");
+            } else {
+                line.append(v);
+            }
+        }
+        line.append("}\n");
+        writer.write(line.toString());
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Appends <i>s</i> to <i>line</i> as a quoted JSON string.
+     */
+    static void appendString(StringBuilder line, String s) {
+        line.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import net.calm.iaclasslibrary.IAClasses.SkeletonProcessor;
+
+/**
+ * Maintains, for each pixel of a binary skeleton, a byte encoding which of its
+ * eight neighbours belong to the skeleton. Bit <i>k</i> of a code is set if
+ * the neighbour at offset ({@link #DX}[k], {@link #DY}[k]) is a skeleton
+ * pixel. The codes are updated incrementally as pixels are removed, so that
+ * end-points, branch-points and removable points can be identified with a
+ * single look-up in a 256-entry table.
+ * <p>
+ * The table is constructed by evaluating the corresponding
+ * {@link SkeletonProcessor} tests on every possible 3 &times; 3
+ * neighbourhood, so classification is identical to those tests, which
+ * consider only the immediate neighbours of a pixel.
+ */
+public class NeighbourhoodCodes {
+
+    public static final int[] DX = {-1, 0, 1, -1, 1, -1, 0, 1};
+    public static final int[] DY = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final byte END_POINT = 1, BRANCH_POINT = 2, REMOVABLE = 4;
+    private static final byte[] TABLE = buildTable();
+
+    private final byte[] pixels;
+    private final byte[] codes;
+    private final int width, height, foreground, background;
+    private int count = 0;
+
+    /**
+     * @param skeleton binary image containing the skeleton, which is modified
+     * by {@link #remove(int)}
+     * @param foreground value of skeleton pixels
+     */
+    public NeighbourhoodCodes(ImageProcessor skeleton, int foreground) {
+        this.foreground = foreground;
+        this.background = 255 - foreground;
+        width = skeleton.getWidth();
+        height = skeleton.getHeight();
+        pixels = (byte[]) skeleton.getPixels();
+        codes = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if ((pixels[i] & 0xff) != foreground) {
+                    continue;
+                }
+                count++;
+                int code = 0;
+                for (int k = 0; k < 8; k++) {
+                    int nx = x + DX[k], ny = y + DY[k];
+                    if (nx >= 0 && ny >= 0 && nx < width && ny < height
+                            && (pixels[ny * width + nx] & 0xff) == foreground) {
+                        code |= 1 << k;
+                    }
+                }
+                codes[i] = (byte) code;
+            }
+        }
+    }
+
+    /*
+     * Classifies each neighbourhood by drawing it in the centre of a
+     * background-filled image, so that tests reading beyond the neighbourhood
+     * only ever see background.
+     */
+    private static byte[] buildTable() {
+        byte[] table = new byte[256];
+        int fg = 0, bg = 255;
+        for (int code = 0; code < 256; code++) {
+            ByteProcessor bp = new ByteProcessor(5, 5);
+            bp.setValue(bg);
+            bp.fill();
+            bp.putPixel(2, 2, fg);
+            for (int k = 0; k < 8; k++) {
+                if ((code & (1 << k)) != 0) {
+                    bp.putPixel(2 + DX[k], 2 + DY[k], fg);
+                }
+            }
+            byte classes = 0;
+            if (SkeletonProcessor.isEndPoint(2, 2, bp, bg)) {
+                classes |= END_POINT;
+            }
+            if (Integer.bitCount(code) > 2 && SkeletonProcessor.isBranchPoint(2, 2, bp, fg) == 0) {
+                classes |= BRANCH_POINT;
+            }
+            if (SkeletonProcessor.removePixel(2, 2, bp.duplicate(), fg, bg)) {
+                classes |= REMOVABLE;
+            }
+            table[code] = classes;
+        }
+        return table;
+    }
+
+    /**
+     * Removes the skeleton pixel at index <i>i</i>, setting it to background
+     * and updating the codes of its neighbours. Has no effect if the pixel is
+     * not a skeleton pixel.
+     */
+    public void remove(int i) {
+        if ((pixels[i] & 0xff) != foreground) {
+            return;
+        }
+        pixels[i] = (byte) background;
+        codes[i] = 0;
+        count--;
+        int x = i % width, y = i / width;
+        for (int k = 0; k < 8; k++) {
+            int nx = x + DX[k], ny = y + DY[k];
+            if (nx >= 0 && ny >= 0 && nx < width && ny < height) {
+                /*
+                 * This pixel is neighbour 7 - k of the neighbour at offset k
+                 */
+                int j = ny * width + nx;
+                codes[j] = (byte) (codes[j] & ~(1 << (7 - k)));
+            }
+        }
+    }
+
+    /**
+     * Removes the skeleton pixel at (x, y), if it lies within the image.
+     */
+    public void remove(int x, int y) {
+        if (contains(x, y)) {
+            remove(y * width + x);
+        }
+    }
+
+    public boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    public boolean isForeground(int i) {
+        return (pixels[i] & 0xff) == foreground;
+    }
+
+    /**
+     * @return the neighbourhood code of the pixel at index <i>i</i>.
+     */
+    public int getCode(int i) {
+        return codes[i] & 0xff;
+    }
+
+    /**
+     * @return the number of skeleton pixels neighbouring the pixel at index
+     * <i>i</i>.
+     */
+    public int getNeighbourCount(int i) {
+        return Integer.bitCount(codes[i] & 0xff);
+    }
+
+    /**
+     * Equivalent to {@link SkeletonProcessor#isEndPoint}.
+     */
+    public boolean isEndPoint(int i) {
+        return isForeground(i) && (TABLE[codes[i] & 0xff] & END_POINT) != 0;
+    }
+
+    /**
+     * Equivalent to a neighbour count greater than two and
+     * {@link SkeletonProcessor#isBranchPoint} returning zero.
+     */
+    public boolean isBranchPoint(int i) {
+        return isForeground(i) && (TABLE[codes[i] & 0xff] & BRANCH_POINT) != 0;
+    }
+
+    /**
+     * Equivalent to {@link SkeletonProcessor#removePixel}.
+     */
+    public boolean isRemovable(int i) {
+        return isForeground(i) && (TABLE[codes[i] & 0xff] & REMOVABLE) != 0;
+    }
+
+    /**
+     * @return true if these codes describe the pixels of <i>processor</i>.
+     */
+    public boolean describes(ImageProcessor processor) {
+        return processor.getPixels() == pixels;
+    }
+
+    /**
+     * @return the number of skeleton pixels remaining.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.gui.PolygonRoi;
+import ij.process.ByteProcessor;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+
+/**
+ * Holds the state associated with the analysis of a single object: its
+ * outline, mask and pixel statistics, together with any outputs generated
+ * during analysis. Outputs are held here until they can be merged into the
+ * image-wide results, so that objects can be analysed independently of one
+ * another.
+ */
+class ObjectAnalysis {
+
+    final ByteProcessor mask;
+    final PolygonRoi roi;
+    final Rectangle box;
+    int index = -1;
+    int pixArea = 0;
+    double xSum = 0.0, ySum = 0.0;
+    boolean analysed = false;
+
+    SkeletonOverlay skeletonOverlay;
+    double curvature = Double.NaN;
+    ArrayList<ArrayList<Double>> curveStats;
+    final ArrayList<int[]> curvePixels = new ArrayList();
+    final ArrayList<Double> curveValues = new ArrayList();
+    ResultRow row;
+
+    ObjectAnalysis(ByteProcessor mask, PolygonRoi roi) {
+        this.mask = mask;
+        this.roi = roi;
+        if (roi != null) {
+            box = roi.getPolygon().getBounds();
+        } else {
+            box = new Rectangle(0, 0, mask.getWidth(), mask.getHeight());
+        }
+    }
+
+    ObjectAnalysis(ByteProcessor mask, PolygonRoi roi, Rectangle box) {
+        this.mask = mask;
+        this.roi = roi;
+        this.box = box;
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Labels the 8-connected objects in a binary image using a two-pass,
+ * union-find algorithm. Objects are labelled in a hole-filled copy of the
+ * image, so each object corresponds to a single outer boundary, while pixel
+ * counts and centroid sums are accumulated from the original image. Objects
+ * are numbered in the order in which a raster scan of the search region would
+ * first encounter them.
+ */
+public class ObjectLabeller {
+
+    private final int width, height, foreground;
+    private final int[] labels;
+    private final ImageProcessor original;
+    private int[] parent = new int[256];
+    private int nProvisional = 0;
+    private int nObjects = 0;
+    private int[] order, counts, minX, minY, maxX, maxY, seeds;
+    private long[] xSums, ySums;
+    private boolean[] detected;
+
+    /**
+     * Labels the objects in <i>filled</i>, a hole-filled copy of
+     * <i>original</i>.
+     *
+     * @param filled the hole-filled binary image
+     * @param original the original binary image
+     * @param foreground the value of foreground pixels
+     * @param roi only objects with a foreground pixel inside this region are
+     * detected
+     */
+    public ObjectLabeller(ImageProcessor filled, ImageProcessor original, int foreground, Roi roi) {
+        width = filled.getWidth();
+        height = filled.getHeight();
+        this.original = original;
+        this.foreground = foreground;
+        labels = new int[width * height];
+        byte[] filledPix = (byte[]) filled.getPixels();
+        byte[] origPix = (byte[]) original.getPixels();
+        firstPass(filledPix, foreground);
+        secondPass(origPix, foreground, roi);
+    }
+
+    /*
+     * Assigns provisional labels, recording the equivalence of labels that
+     * meet.
+     */
+    private void firstPass(byte[] pixels, int foreground) {
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = offset + x;
+                if ((pixels[i] & 0xff) != foreground) {
+                    continue;
+                }
+                int label = 0;
+                if (x > 0) {
+                    label = union(label, labels[i - 1]);
+                }
+                if (y > 0) {
+                    int above = i - width;
+                    if (x > 0) {
+                        label = union(label, labels[above - 1]);
+                    }
+                    label = union(label, labels[above]);
+                    if (x < width - 1) {
+                        label = union(label, labels[above + 1]);
+                    }
+                }
+                if (label == 0) {
+                    label = newLabel();
+                }
+                labels[i] = label;
+            }
+        }
+    }
+
+    /*
+     * Resolves provisional labels to final object labels, numbered in raster
+     * order, and accumulates statistics for each object.
+     */
+    private void secondPass(byte[] pixels, int foreground, Roi roi) {
+        int[] remap = new int[nProvisional + 1];
+        int capacity = 16;
+        counts = new int[capacity];
+        minX = new int[capacity];
+        minY = new int[capacity];
+        maxX = new int[capacity];
+        maxY = new int[capacity];
+        seeds = new int[capacity];
+        xSums = new long[capacity];
+        ySums = new long[capacity];
+        Rectangle bounds = roi.getBounds();
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = offset + x;
+                if (labels[i] == 0) {
+                    continue;
+                }
+                int root = find(labels[i]);
+                int label = remap[root];
+                if (label == 0) {
+                    label = ++nObjects;
+                    remap[root] = label;
+                    if (label >= counts.length) {
+                        grow(2 * counts.length);
+                    }
+                    minX[label] = x;
+                    minY[label] = y;
+                    maxX[label] = x;
+                    maxY[label] = y;
+                    seeds[label] = -1;
+                }
+                labels[i] = label;
+                if (x < minX[label]) {
+                    minX[label] = x;
+                }
+                if (x > maxX[label]) {
+                    maxX[label] = x;
+                }
+                maxY[label] = y;
+                if ((pixels[i] & 0xff) == foreground) {
+                    counts[label]++;
+                    xSums[label] += x;
+                    ySums[label] += y;
+                    /*
+                     * An object is detected at the first foreground pixel
+                     * within the search region, as in a raster scan
+                     */
+                    if (seeds[label] < 0 && y >= bounds.y && y < bounds.height
+                            && x >= bounds.x && x < bounds.width && roi.contains(x, y)) {
+                        seeds[label] = i;
+                    }
+                }
+            }
+        }
+        detected = new boolean[nObjects + 1];
+        int nDetected = 0;
+        for (int l = 1; l <= nObjects; l++) {
+            if (seeds[l] >= 0) {
+                detected[l] = true;
+                nDetected++;
+            }
+        }
+        Integer[] sorted = new Integer[nDetected];
+        for (int l = 1, j = 0; l <= nObjects; l++) {
+            if (detected[l]) {
+                sorted[j++] = l;
+            }
+        }
+        Arrays.sort(sorted, (a, b) -> Integer.compare(seeds[a], seeds[b]));
+        order = new int[nDetected];
+        for (int j = 0; j < nDetected; j++) {
+            order[j] = sorted[j];
+        }
+        parent = null;
+    }
+
+    private int newLabel() {
+        nProvisional++;
+        if (nProvisional >= parent.length) {
+            parent = Arrays.copyOf(parent, 2 * parent.length);
+        }
+        parent[nProvisional] = nProvisional;
+        return nProvisional;
+    }
+
+    private int find(int label) {
+        int root = label;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        while (parent[label] != root) {
+            int next = parent[label];
+            parent[label] = root;
+            label = next;
+        }
+        return root;
+    }
+
+    /*
+     * Merges the sets containing a and b, either of which may be zero
+     * (unlabelled), and returns the root of the merged set.
+     */
+    private int union(int a, int b) {
+        if (b == 0) {
+            return a;
+        }
+        if (a == 0) {
+            return find(b);
+        }
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+            return rootA;
+        }
+        parent[rootA] = rootB;
+        return rootB;
+    }
+
+    private void grow(int capacity) {
+        counts = Arrays.copyOf(counts, capacity);
+        minX = Arrays.copyOf(minX, capacity);
+        minY = Arrays.copyOf(minY, capacity);
+        maxX = Arrays.copyOf(maxX, capacity);
+        maxY = Arrays.copyOf(maxY, capacity);
+        seeds = Arrays.copyOf(seeds, capacity);
+        xSums = Arrays.copyOf(xSums, capacity);
+        ySums = Arrays.copyOf(ySums, capacity);
+    }
+
+    /**
+     * @return the number of objects detected within the search region.
+     */
+    public int getObjectCount() {
+        return order.length;
+    }
+
+    /**
+     * @return the label of the <i>n</i>th object detected.
+     */
+    public int getLabel(int n) {
+        return order[n];
+    }
+
+    public int getSeedX(int n) {
+        return seeds[order[n]] % width;
+    }
+
+    public int getSeedY(int n) {
+        return seeds[order[n]] / width;
+    }
+
+    /**
+     * @return the number of foreground pixels in the <i>n</i>th object.
+     */
+    public int getPixelCount(int n) {
+        return counts[order[n]];
+    }
+
+    /**
+     * @return the sum of the x-coordinates of the foreground pixels in the
+     * <i>n</i>th object, relative to its bounding box.
+     */
+    public double getXSum(int n) {
+        int l = order[n];
+        return xSums[l] - (long) counts[l] * minX[l];
+    }
+
+    /**
+     * @return the sum of the y-coordinates of the foreground pixels in the
+     * <i>n</i>th object, relative to its bounding box.
+     */
+    public double getYSum(int n) {
+        int l = order[n];
+        return ySums[l] - (long) counts[l] * minY[l];
+    }
+
+    public Rectangle getBounds(int n) {
+        int l = order[n];
+        return new Rectangle(minX[l], minY[l], maxX[l] - minX[l] + 1, maxY[l] - minY[l] + 1);
+    }
+
+    /**
+     * Creates a mask of the <i>n</i>th object, the size of its bounding box,
+     * in which pixels belonging to the object are set to 255.
+     */
+    public ByteProcessor getObjectMask(int n) {
+        int l = order[n];
+        Rectangle r = getBounds(n);
+        byte[] mask = new byte[r.width * r.height];
+        for (int y = 0; y < r.height; y++) {
+            int offset = (y + r.y) * width + r.x;
+            for (int x = 0; x < r.width; x++) {
+                if (labels[offset + x] == l) {
+                    mask[y * r.width + x] = (byte) 255;
+                }
+            }
+        }
+        return new ByteProcessor(r.width, r.height, mask);
+    }
+
+    /**
+     * Creates a copy of the bounding box of the <i>n</i>th object in which all
+     * pixels not belonging to that object are set to <i>background</i>. The
+     * copy has the same type and look-up table as the original image.
+     */
+    public ImageProcessor getObjectImage(int n, int background) {
+        int l = order[n];
+        Rectangle r = getBounds(n);
+        byte[] origPix = (byte[]) original.getPixels();
+        ImageProcessor crop = original.createProcessor(r.width, r.height);
+        byte[] cropPix = (byte[]) crop.getPixels();
+        for (int y = 0; y < r.height; y++) {
+            int offset = (y + r.y) * width + r.x;
+            for (int x = 0; x < r.width; x++) {
+                int i = offset + x;
+                cropPix[y * r.width + x] = (labels[i] == l && (origPix[i] & 0xff) == foreground)
+                        ? (byte) foreground : (byte) background;
+            }
+        }
+        return crop;
+    }
+
+    /**
+     * @return true if the pixel at (x, y) belongs to a detected object.
+     */
+    public boolean isDetected(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return false;
+        }
+        return detected[labels[y * width + x]];
+    }
+}
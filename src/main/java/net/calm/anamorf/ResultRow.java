@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.measure.ResultsTable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single row of results for one object (or one image, when the whole image
+ * is treated as one object). Values are stored in the order in which they are
+ * added, which determines the column order in the results table.
+ */
+public class ResultRow {
+
+    public static final String LABEL_HEAD = "Image";
+    private final String label;
+    private final LinkedHashMap<String, Double> values = new LinkedHashMap();
+
+    public ResultRow(String label) {
+        this.label = label;
+    }
+
+    public void addValue(String heading, double value) {
+        values.put(heading, value);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Map<String, Double> getValues() {
+        return values;
+    }
+
+    /**
+     * Appends this row to the end of <i>table</i>.
+     */
+    public void addTo(ResultsTable table) {
+        table.incrementCounter();
+        for (Map.Entry<String, Double> value : values.entrySet()) {
+            table.addValue(value.getKey(), value.getValue());
+        }
+        table.addLabel(LABEL_HEAD, label);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives rows of results as they are produced, so that they need not be
+ * held in memory until the end of a run. Rows are written in the order in
+ * which they are to appear in the output.
+ */
+public interface ResultSink extends Closeable {
+
+    /**
+     * Appends <i>row</i> to the output. Rows may be buffered until
+     * {@link #flush()} is called.
+     */
+    void write(ResultRow row) throws IOException;
+
+    /**
+     * Ensures all rows written so far have reached their destination.
+     */
+    void flush() throws IOException;
+}
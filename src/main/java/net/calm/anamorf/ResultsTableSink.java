@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Presents results in an ImageJ results table, for display to GUI users. The
+ * table is a view of the results only - they are saved by other sinks.
+ */
+public class ResultsTableSink implements ResultSink {
+
+    private final ResultsTable table;
+
+    public ResultsTableSink(ResultsTable table) {
+        this.table = table;
+    }
+
+    public void write(ResultRow row) {
+        row.addTo(table);
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Determines which images of a batch are analysed by one of several
+ * processes sharing a results directory, without any coordinating service.
+ * Images are either partitioned deterministically by a hash of their name, or
+ * claimed on a first-come basis by atomically creating a lease file for each.
+ * Each shard records its results in its own subdirectory of the results
+ * directory, from which they are later merged.
+ * <p>
+ * A lease names the shard holding it. Leases are written in full before
+ * they are linked, or where links are not supported renamed, into place, so a
+ * lease file is never seen empty. A shard
+ * that stops before completing a leased image keeps the lease: the image is
+ * analysed when that shard is resumed, or by another shard created with
+ * <i>reclaim</i> set, which takes over the leases of images not recorded as
+ * complete in their owner's journal. Reclaiming does not check whether the
+ * owner is still running - it is intended for use once the owner has died.
+ * If an image is nevertheless analysed twice, only one result is merged.
+ */
+public class Shard {
+
+    public static final String SHARD_DIRECTORY = "shards", LEASE_DIRECTORY = "leases";
+
+    /**
+     * The order in which images are enumerated by {@link ImageWalker}: paths
+     * are compared one component at a time.
+     */
+    public static final Comparator<String> CANONICAL_ORDER = (a, b) -> {
+        String[] as = a.split("/"), bs = b.split("/");
+        for (int i = 0; i < as.length && i < bs.length; i++) {
+            int c = as[i].compareTo(bs[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(as.length, bs.length);
+    };
+
+    private static final String LEASE_SUFFIX = ".lease";
+
+    private final String id;
+    private final int index, count;
+    private final boolean reclaim;
+    /*
+     * The images completed by each shard whose leases may be reclaimed
+     */
+    private final HashMap<String, Set<String>> completed = new HashMap();
+
+    private Shard(String id, int index, int count, boolean reclaim) {
+        this.id = id;
+        this.index = index;
+        this.count = count;
+        this.reclaim = reclaim;
+    }
+
+    /**
+     * Creates shard <i>index</i> of <i>count</i>, each of which analyses the
+     * images whose name hashes to its index.
+     */
+    public static Shard partition(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException(String.format("Invalid shard %d of %d", index, count));
+        }
+        return new Shard(String.format("%d-of-%d", index, count), index, count, false);
+    }
+
+    /**
+     * Creates a shard, identified by <i>id</i>, that analyses any image not
+     * already claimed by another shard. If <i>reclaim</i> is true, images
+     * leased by other shards but not completed by them are also claimed.
+     */
+    public static Shard leasing(String id, boolean reclaim) {
+        if (id.isEmpty() || id.contains("/") || id.contains(File.separator)) {
+            throw new IllegalArgumentException(String.format("Invalid shard id '%s'", id));
+        }
+        return new Shard(id, 0, 0, reclaim);
+    }
+
+    /**
+     * Claims <i>imageName</i> for this shard. With hash partitioning, the
+     * claim succeeds only if the image belongs to this shard. With leasing,
+     * the claim succeeds if this shard creates the lease file for the image,
+     * if the lease was created by this shard in an earlier run that is now
+     * being resumed, or if this shard reclaims it (see {@link Shard}).
+     */
+    public boolean claim(String imageName, File resultsDirectory) throws IOException {
+        if (count > 0) {
+            return Math.floorMod(imageName.hashCode(), count) == index;
+        }
+        File lease = new File(resultsDirectory, LEASE_DIRECTORY + File.separator + imageName + LEASE_SUFFIX);
+        lease.getParentFile().mkdirs();
+        /*
+         * A lease may disappear between attempts to create and read it if it
+         * is being reclaimed by another shard
+         */
+        for (int attempt = 0; attempt < 3; attempt++) {
+            if (createLease(lease)) {
+                return true;
+            }
+            String owner = readOwner(lease);
+            if (owner == null) {
+                continue;
+            }
+            if (id.equals(owner)) {
+                return true;
+            }
+            /*
+             * Leases left empty by earlier versions name no shard, so there is
+             * no journal to check - like any other lease, they are only taken
+             * over when reclaiming
+             */
+            if (!reclaim || (!owner.isEmpty() && isCompleted(owner, imageName, resultsDirectory))) {
+                return false;
+            }
+            if (reclaimLease(lease, owner)) {
+                AnalysisLog.info("Reclaimed %s from shard '%s'", imageName, owner);
+                return createLease(lease);
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Atomically creates a lease held by this shard, returning false if the
+     * lease already exists. The lease is written to a temporary file first,
+     * so that it is complete once it appears.
+     */
+    private boolean createLease(File lease) throws IOException {
+        Path temp = Files.createTempFile(lease.getParentFile().toPath(), id, ".tmp");
+        try {
+            Files.write(temp, id.getBytes(StandardCharsets.UTF_8));
+            placeLease(temp, lease.toPath());
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /*
+     * Removes a lease held by owner, returning false if it has already been
+     * removed or replaced by another shard
+     */
+    private boolean reclaimLease(File lease, String owner) throws IOException {
+        File stale = new File(lease.getPath() + "." + id);
+        try {
+            Files.move(lease.toPath(), stale.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        try {
+            if (owner.equals(readOwner(stale))) {
+                return true;
+            }
+            /*
+             * Another shard reclaimed the lease first - restore its lease
+             */
+            try {
+                placeLease(stale.toPath(), lease.toPath());
+            } catch (FileAlreadyExistsException e) {
+            }
+            return false;
+        } finally {
+            Files.deleteIfExists(stale.toPath());
+        }
+    }
+
+    /*
+     * Puts the complete lease file source in place as lease, throwing
+     * FileAlreadyExistsException if the lease exists. Where hard links are not
+     * supported, source is renamed instead, without replacing an existing
+     * lease. On some platforms this checks for the lease before renaming, so
+     * two shards may both claim an image - it is then analysed twice, but only
+     * one result is merged.
+     */
+    private static void placeLease(Path source, Path lease) throws IOException {
+        try {
+            Files.createLink(lease, source);
+        } catch (UnsupportedOperationException e) {
+            Files.move(source, lease);
+        }
+    }
+
+    /*
+     * Returns null if the lease does not exist
+     */
+    private static String readOwner(File lease) throws IOException {
+        try {
+            return new String(Files.readAllBytes(lease.toPath()), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private boolean isCompleted(String owner, String imageName, File resultsDirectory) throws IOException {
+        Set<String> images = completed.get(owner);
+        if (images == null) {
+            images = new BatchJournal(new File(getDirectory(resultsDirectory, owner), BatchJournal.FILENAME)).read().keySet();
+            completed.put(owner, images);
+        }
+        return images.contains(imageName);
+    }
+
+    /**
+     * @return the directory in which this shard records its results.
+     */
+    public File getDirectory(File resultsDirectory) {
+        return getDirectory(resultsDirectory, id);
+    }
+
+    private static File getDirectory(File resultsDirectory, String id) {
+        return new File(resultsDirectory, SHARD_DIRECTORY + File.separator + id);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the directories in which shards have recorded results in
+     * <i>resultsDirectory</i>.
+     */
+    public static ArrayList<File> findDirectories(File resultsDirectory) {
+        ArrayList<File> directories = new ArrayList();
+        File[] files = new File(resultsDirectory, SHARD_DIRECTORY).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    directories.add(file);
+                }
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * @return the images in <i>resultsDirectory</i> that are leased but not
+     * among <i>completed</i>, in canonical order, mapped to the shards
+     * holding their leases.
+     */
+    public static Map<String, String> findUnfinishedLeases(File resultsDirectory, Collection<String> completed) throws IOException {
+        TreeMap<String, String> unfinished = new TreeMap(CANONICAL_ORDER);
+        Path leases = new File(resultsDirectory, LEASE_DIRECTORY).toPath();
+        if (!Files.isDirectory(leases)) {
+            return unfinished;
+        }
+        try (Stream<Path> paths = Files.walk(leases)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String name = leases.relativize(path).toString().replace(File.separatorChar, '/');
+                if (!name.endsWith(LEASE_SUFFIX) || !Files.isRegularFile(path)) {
+                    continue;
+                }
+                name = name.substring(0, name.length() - LEASE_SUFFIX.length());
+                if (!completed.contains(name)) {
+                    String owner = readOwner(path.toFile());
+                    if (owner != null) {
+                        unfinished.put(name, owner);
+                    }
+                }
+            }
+        }
+        return unfinished;
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Represents a binary skeleton as a graph. Vertices are end-points (pixels
+ * with one neighbour), isolated pixels and junctions (clusters of adjacent
+ * pixels with three or more neighbours). Edges are the runs of pixels with
+ * exactly two neighbours that connect vertices. Pixels are identified by their
+ * index in the image.
+ * <p>
+ * The graph is built from {@link NeighbourhoodCodes} in two passes: a raster
+ * scan finds the vertices, then the runs of pixels leaving each vertex are
+ * traced to find the edges. This tracing is separate from the walk of a
+ * {@link SkeletonWalker}, which only classifies pixels.
+ */
+public class SkeletonGraph {
+
+    public static final int ISOLATED = 0, END = 1, JUNCTION = 3;
+    private static final int[] DX = NeighbourhoodCodes.DX;
+    private static final int[] DY = NeighbourhoodCodes.DY;
+
+    private final int width, height;
+    private final ArrayList<Vertex> vertices = new ArrayList();
+    private final ArrayList<Edge> edges = new ArrayList();
+    private int pixelCount = 0;
+
+    /**
+     * A vertex of the skeleton graph.
+     */
+    public static class Vertex {
+
+        private int type;
+        private final int id;
+        private final int[] pixels;
+        private final ArrayList<Edge> edges = new ArrayList();
+        private boolean removed = false;
+
+        Vertex(int id, int type, int[] pixels) {
+            this.id = id;
+            this.type = type;
+            this.pixels = pixels;
+        }
+
+        /**
+         * @return the position of this vertex in the graph's list of vertices.
+         */
+        public int getId() {
+            return id;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * @return the pixel indices making up this vertex, in raster order.
+         */
+        public int[] getPixels() {
+            return pixels;
+        }
+
+        /**
+         * @return the index of the first pixel of this vertex in raster order.
+         */
+        public int getIndex() {
+            return pixels[0];
+        }
+
+        /**
+         * @return the number of edge ends incident on this vertex - a loop is
+         * counted twice.
+         */
+        public int getDegree() {
+            return edges.size();
+        }
+
+        public ArrayList<Edge> getEdges() {
+            return edges;
+        }
+
+        public boolean isRemoved() {
+            return removed;
+        }
+    }
+
+    /**
+     * An edge of the skeleton graph, consisting of the pixels between two
+     * vertices, ordered from <i>a</i> to <i>b</i>.
+     */
+    public static class Edge {
+
+        private final Vertex a, b;
+        private final int[] pixels;
+        private boolean removed = false;
+
+        Edge(Vertex a, Vertex b, int[] pixels) {
+            this.a = a;
+            this.b = b;
+            this.pixels = pixels;
+        }
+
+        public Vertex getA() {
+            return a;
+        }
+
+        public Vertex getB() {
+            return b;
+        }
+
+        public Vertex opposite(Vertex v) {
+            return v == a ? b : a;
+        }
+
+        /**
+         * @return the pixels between the two vertices, excluding the pixels
+         * of the vertices themselves.
+         */
+        public int[] getPixels() {
+            return pixels;
+        }
+
+        /**
+         * @return the pixels of this edge ordered starting from vertex
+         * <i>v</i>.
+         */
+        public int[] getPixelsFrom(Vertex v) {
+            if (v == a) {
+                return pixels;
+            }
+            int[] reversed = new int[pixels.length];
+            for (int i = 0; i < pixels.length; i++) {
+                reversed[i] = pixels[pixels.length - 1 - i];
+            }
+            return reversed;
+        }
+
+        public int getLength() {
+            return pixels.length;
+        }
+
+        public boolean isRemoved() {
+            return removed;
+        }
+    }
+
+    /**
+     * Constructs the graph of the skeleton contained in <i>skeleton</i>.
+     *
+     * @param skeleton binary image containing the skeleton
+     * @param foreground value of skeleton pixels
+     */
+    public SkeletonGraph(ImageProcessor skeleton, int foreground) {
+        this(new NeighbourhoodCodes(skeleton, foreground));
+    }
+
+    /**
+     * Constructs the graph of the skeleton described by <i>codes</i>.
+     */
+    public SkeletonGraph(NeighbourhoodCodes codes) {
+        width = codes.getWidth();
+        height = codes.getHeight();
+        byte[] counts = new byte[width * height];
+        for (int i = 0; i < counts.length; i++) {
+            if (codes.isForeground(i)) {
+                counts[i] = (byte) (codes.getNeighbourCount(i) + 1);
+            }
+        }
+        build(counts);
+    }
+
+    private void build(byte[] counts) {
+        int n = width * height;
+        for (int i = 0; i < n; i++) {
+            if (counts[i] != 0) {
+                pixelCount++;
+            }
+        }
+        /*
+         * Identify vertices: end-points and isolated pixels are single-pixel
+         * vertices, while adjacent junction pixels are grouped together.
+         */
+        int[] vertexOf = new int[n];
+        int[] stack = new int[16];
+        for (int i = 0; i < n; i++) {
+            int c = counts[i] - 1;
+            if (c < 0 || c == 2 || vertexOf[i] != 0) {
+                continue;
+            }
+            if (c < 3) {
+                vertices.add(new Vertex(vertices.size(), c, new int[]{i}));
+                vertexOf[i] = vertices.size();
+                continue;
+            }
+            int label = vertices.size() + 1;
+            int size = 0, top = 0;
+            int[] cluster = new int[4];
+            stack[top++] = i;
+            vertexOf[i] = label;
+            while (top > 0) {
+                int p = stack[--top];
+                if (size >= cluster.length) {
+                    cluster = Arrays.copyOf(cluster, 2 * cluster.length);
+                }
+                cluster[size++] = p;
+                int px = p % width, py = p / width;
+                for (int k = 0; k < 8; k++) {
+                    int x = px + DX[k], y = py + DY[k];
+                    if (x < 0 || y < 0 || x >= width || y >= height) {
+                        continue;
+                    }
+                    int q = y * width + x;
+                    if (counts[q] - 1 >= 3 && vertexOf[q] == 0) {
+                        vertexOf[q] = label;
+                        if (top >= stack.length) {
+                            stack = Arrays.copyOf(stack, 2 * stack.length);
+                        }
+                        stack[top++] = q;
+                    }
+                }
+            }
+            cluster = Arrays.copyOf(cluster, size);
+            Arrays.sort(cluster);
+            vertices.add(new Vertex(vertices.size(), JUNCTION, cluster));
+        }
+        /*
+         * Trace the pixel runs leaving each vertex to find the edges.
+         */
+        boolean[] visited = new boolean[n];
+        HashSet<Long> adjacent = new HashSet();
+        int[] run = new int[16];
+        for (int v = 0; v < vertices.size(); v++) {
+            Vertex vertex = vertices.get(v);
+            for (int p : vertex.pixels) {
+                int px = p % width, py = p / width;
+                for (int k = 0; k < 8; k++) {
+                    int x = px + DX[k], y = py + DY[k];
+                    if (x < 0 || y < 0 || x >= width || y >= height) {
+                        continue;
+                    }
+                    int q = y * width + x;
+                    if (counts[q] == 0) {
+                        continue;
+                    }
+                    if (vertexOf[q] != 0) {
+                        int w = vertexOf[q] - 1;
+                        if (w != v && adjacent.add((long) Math.min(v, w) * n + Math.max(v, w))) {
+                            addEdge(new Edge(vertex, vertices.get(w), new int[0]));
+                        }
+                        continue;
+                    }
+                    if (visited[q]) {
+                        continue;
+                    }
+                    int length = 0, prev = p, current = q, end = -1;
+                    while (true) {
+                        visited[current] = true;
+                        if (length >= run.length) {
+                            run = Arrays.copyOf(run, 2 * run.length);
+                        }
+                        run[length++] = current;
+                        int next = nextPixel(counts, current, prev);
+                        if (next < 0) {
+                            break;
+                        }
+                        if (vertexOf[next] != 0) {
+                            end = vertexOf[next] - 1;
+                            break;
+                        }
+                        if (visited[next]) {
+                            break;
+                        }
+                        prev = current;
+                        current = next;
+                    }
+                    if (end >= 0) {
+                        addEdge(new Edge(vertex, vertices.get(end), Arrays.copyOf(run, length)));
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns the neighbour of a two-neighbour pixel that is not the pixel it
+     * was reached from, or -1 if there is none.
+     */
+    private int nextPixel(byte[] counts, int current, int prev) {
+        int cx = current % width, cy = current / width;
+        for (int k = 0; k < 8; k++) {
+            int x = cx + DX[k], y = cy + DY[k];
+            if (x < 0 || y < 0 || x >= width || y >= height) {
+                continue;
+            }
+            int q = y * width + x;
+            if (counts[q] != 0 && q != prev) {
+                return q;
+            }
+        }
+        return -1;
+    }
+
+    private void addEdge(Edge edge) {
+        edges.add(edge);
+        edge.a.edges.add(edge);
+        edge.b.edges.add(edge);
+    }
+
+    /**
+     * Removes an edge from the graph. The pixels of the edge are subtracted
+     * from the pixel count of the graph.
+     */
+    public void removeEdge(Edge edge) {
+        edge.removed = true;
+        edge.a.edges.remove(edge);
+        edge.b.edges.remove(edge);
+        pixelCount -= edge.pixels.length;
+    }
+
+    /**
+     * Removes a vertex, together with any edges still incident on it.
+     */
+    public void removeVertex(Vertex vertex) {
+        while (!vertex.edges.isEmpty()) {
+            removeEdge(vertex.edges.get(0));
+        }
+        vertex.removed = true;
+        pixelCount -= vertex.pixels.length;
+    }
+
+    /**
+     * Replaces a junction that has been reduced to two edges by a single edge
+     * passing through it. If the two edges are the same (the junction lies on
+     * a closed loop), the junction is simply reclassified.
+     *
+     * @return the merged edge, or null if no merge was performed
+     */
+    public Edge mergeAt(Vertex vertex) {
+        if (vertex.getDegree() != 2 || vertex.type != JUNCTION) {
+            return null;
+        }
+        Edge e1 = vertex.edges.get(0);
+        Edge e2 = vertex.edges.get(1);
+        if (e1 == e2) {
+            return null;
+        }
+        Vertex a = e1.opposite(vertex);
+        Vertex b = e2.opposite(vertex);
+        int[] p1 = e1.getPixelsFrom(a);
+        int[] p2 = e2.getPixelsFrom(vertex);
+        int[] merged = new int[p1.length + vertex.pixels.length + p2.length];
+        System.arraycopy(p1, 0, merged, 0, p1.length);
+        System.arraycopy(vertex.pixels, 0, merged, p1.length, vertex.pixels.length);
+        System.arraycopy(p2, 0, merged, p1.length + vertex.pixels.length, p2.length);
+        e1.removed = true;
+        e2.removed = true;
+        a.edges.remove(e1);
+        b.edges.remove(e2);
+        vertex.edges.clear();
+        vertex.removed = true;
+        Edge edge = new Edge(a, b, merged);
+        addEdge(edge);
+        return edge;
+    }
+
+    /**
+     * Reclassifies a junction reduced to a single edge as an end-point.
+     */
+    public void setEndPoint(Vertex vertex) {
+        vertex.type = END;
+    }
+
+    public ArrayList<Vertex> getVertices() {
+        return vertices;
+    }
+
+    public ArrayList<Edge> getEdges() {
+        return edges;
+    }
+
+    /**
+     * @return the number of skeleton pixels remaining in the graph.
+     */
+    public int getPixelCount() {
+        return pixelCount;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
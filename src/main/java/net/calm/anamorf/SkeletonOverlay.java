@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.process.Blitter;
+import ij.process.ColorBlitter;
+import ij.process.ColorProcessor;
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * Records the drawing of a skeleton overlay - the skeleton pixels, with tips
+ * and branch-points marked by circles - as a list of primitives in image
+ * coordinates, so that no image need be allocated until the overlay is
+ * rendered.
+ */
+public class SkeletonOverlay {
+
+    public static final byte PIXEL = 0, TIP = 1, BRANCH_POINT = 2;
+    private static final Color[] COLORS = {Color.white, Color.red, Color.yellow};
+
+    private final int radius;
+    private int[] xs = new int[64], ys = new int[64];
+    private byte[] kinds = new byte[64];
+    private int size = 0;
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE,
+            maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+    /**
+     * @param radius the radius of the circles marking tips and branch-points
+     */
+    public SkeletonOverlay(int radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * Records a primitive at (x, y). Primitives are drawn in the order in
+     * which they are added.
+     *
+     * @param kind one of {@link #PIXEL}, {@link #TIP} or
+     * {@link #BRANCH_POINT}
+     */
+    public void add(byte kind, int x, int y) {
+        if (size >= xs.length) {
+            xs = Arrays.copyOf(xs, 2 * xs.length);
+            ys = Arrays.copyOf(ys, 2 * ys.length);
+            kinds = Arrays.copyOf(kinds, 2 * kinds.length);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        kinds[size++] = kind;
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Renders the overlay onto a black canvas covering only the extent of its
+     * primitives, which is then added to <i>image</i>. Overlays of different
+     * objects may therefore be rendered onto the same image in any order.
+     */
+    public void renderTo(ColorProcessor image) {
+        if (size == 0) {
+            return;
+        }
+        int diam = 2 * radius + 1;
+        int x0 = minX - radius, y0 = minY - radius;
+        ColorProcessor canvas = new ColorProcessor(maxX - minX + diam, maxY - minY + diam);
+        canvas.setLineWidth(radius / 2);
+        canvas.setColor(Color.black);
+        canvas.fill();
+        canvas.setColor(Color.white);
+        for (int i = 0; i < size; i++) {
+            int x = xs[i] - x0, y = ys[i] - y0;
+            if (kinds[i] == PIXEL) {
+                canvas.drawPixel(x, y);
+            } else {
+                canvas.setColor(COLORS[kinds[i]]);
+                canvas.drawOval(x - radius, y - radius, diam, diam);
+                canvas.setColor(Color.white);
+            }
+        }
+        new ColorBlitter(image).copyBits(canvas, x0, y0, Blitter.ADD);
+    }
+}
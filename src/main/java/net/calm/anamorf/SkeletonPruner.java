@@ -22,33 +22,46 @@ import ij.WindowManager;
 import ij.process.ByteProcessor;
 import ij.process.ByteStatistics;
 import ij.process.ImageProcessor;
-import net.calm.iaclasslibrary.Graph.Node;
 import net.calm.iaclasslibrary.IAClasses.SkeletonProcessor;
 
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 
 /**
  * SkeletonPruner takes as argument a <i>ByteProcessor</i>, containing a binary
  * skeleton object. This image is processed to remove artifactual points (points
  * that may be removed without creating a 'break' in the structure) and
- * 'branches' less than a specified <i>minimumLength</i>.
+ * 'branches' less than a specified <i>minimumLength</i>. All pruning state,
+ * including the pixel values taken as foreground and background, belongs to
+ * the instance, so separate instances may be used concurrently. Branches are
+ * traced over the instance's {@link NeighbourhoodCodes}, without any shared
+ * state.
  */
 public class SkeletonPruner {
 
     private ByteProcessor outputProcessor = null;
-    public static int FOREGROUND = 255, BACKGROUND = 0;
+    private final int foreground, background;
     private final int MIN_BRANCH_LENGTH;
     private ArrayList<int[][]> branches = new ArrayList();
     private Rectangle roi;
     private final boolean removeAll;
-    private int index = 0;
-
-    public SkeletonPruner(Rectangle roi) {
-        this.roi = roi;
-        MIN_BRANCH_LENGTH = 0;
-        removeAll = false;
-    }
+    /*
+     * Neighbourhood codes of the image being pruned, kept up to date as
+     * pixels are removed from it
+     */
+    private NeighbourhoodCodes codes;
+    /*
+     * Marks the end of a trace that stopped at a branch-point
+     */
+    private static final short BRANCH = -1;
+    /*
+     * Neighbours are tried edge-adjacent first, so that a trace follows a
+     * staircase pixel by pixel rather than cutting its corners
+     */
+    private static final int[] TRACE_ORDER = {1, 3, 4, 6, 0, 2, 5, 7};
+    private int iterations = 0, pixelsRemoved = 0;
 
     public static void prune(String minLength) {
         if (IJ.getInstance() == null) {
@@ -79,6 +92,19 @@ public class SkeletonPruner {
     }
 
     public SkeletonPruner(int minimumLength, ByteProcessor inputProcessor, Rectangle roi, boolean loops, boolean removeAll) {
+        this(minimumLength, inputProcessor, roi, loops, removeAll, false);
+    }
+
+    /**
+     * Prunes the skeleton contained in <i>inputProcessor</i>.
+     *
+     * @param graphPruning if true, and neither <i>loops</i> nor
+     * <i>removeAll</i> is set, branches are pruned using a
+     * {@link SkeletonGraph} constructed once, rather than by repeatedly
+     * scanning the image. The output is not always identical to that of the
+     * scanning mode - see {@link #pruneGraph(ImageProcessor)}.
+     */
+    public SkeletonPruner(int minimumLength, ByteProcessor inputProcessor, Rectangle roi, boolean loops, boolean removeAll, boolean graphPruning) {
         this.roi = roi;
         this.removeAll = removeAll;
         MIN_BRANCH_LENGTH = minimumLength;
@@ -87,11 +113,11 @@ public class SkeletonPruner {
         int height = inputProcessor.getHeight();
 
         if (inputProcessor.isInvertedLut()) {
-            FOREGROUND = 255;
-            BACKGROUND = 0;
+            foreground = 255;
+            background = 0;
         } else {
-            FOREGROUND = 0;
-            BACKGROUND = 255;
+            foreground = 0;
+            background = 255;
         }
 
         histogram = inputProcessor.getHistogram();
@@ -101,19 +127,45 @@ public class SkeletonPruner {
         if (histogram[0] + histogram[255] == width * height) {
             ByteProcessor referenceProcessor = (ByteProcessor) inputProcessor.duplicate();
             outputProcessor = (ByteProcessor) inputProcessor.duplicate();
+            codes = new NeighbourhoodCodes(referenceProcessor, foreground);
+            int initialCount = codes.getCount();
             prunePoints(inputProcessor.getRoi(), referenceProcessor);
-            /*
-             * The image is repeatedly processed until no further changes are
-             * necessary.
-             */
-            while (pruneBranches(referenceProcessor, false)) ;
-            if (loops) {
-                while (pruneBranches(referenceProcessor, true)) ;
+            if (graphPruning && !loops && !removeAll) {
+                pruneGraph(referenceProcessor);
+            } else {
+                /*
+                 * The image is repeatedly processed until no further changes
+                 * are necessary.
+                 */
+                while (pruneBranches(referenceProcessor, false)) {
+                    iterations++;
+                }
+                if (loops) {
+                    while (pruneBranches(referenceProcessor, true)) {
+                        iterations++;
+                    }
+                }
             }
+            pixelsRemoved = initialCount - codes.getCount();
             outputProcessor.setPixels(referenceProcessor.getPixels());
         }
     }
 
+    /**
+     * @return the number of passes over the skeleton in which at least one
+     * branch was removed.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the number of skeleton pixels removed by pruning.
+     */
+    public int getPixelsRemoved() {
+        return pixelsRemoved;
+    }
+
     public void prunePoints(int x, int y, ImageProcessor processor) {
         prunePoints(new Rectangle(x - 1, y - 1, 3, 3), processor);
     }
@@ -127,12 +179,23 @@ public class SkeletonPruner {
      */
     public void prunePoints(Rectangle roi, ImageProcessor processor) {
         int x, y;
-        processor.setColor(BACKGROUND);
+        processor.setColor(background);
 
+        if (codes != null && codes.describes(processor)) {
+            int width = processor.getWidth();
+            for (y = roi.y; y < roi.y + roi.height; y++) {
+                for (x = roi.x; x < roi.x + roi.width; x++) {
+                    if (codes.contains(x, y) && codes.isRemovable(y * width + x)) {
+                        codes.remove(y * width + x);
+                    }
+                }
+            }
+            return;
+        }
         for (y = roi.y; y < roi.y + roi.height; y++) {
             for (x = roi.x; x < roi.x + roi.width; x++) {
-                if (processor.getPixelValue(x, y) == FOREGROUND) {
-                    if (SkeletonProcessor.removePixel(x, y, processor, FOREGROUND, BACKGROUND)) {
+                if (processor.getPixelValue(x, y) == foreground) {
+                    if (SkeletonProcessor.removePixel(x, y, processor, foreground, background)) {
                         drawPixel(processor, x, y);
                     }
                 }
@@ -152,10 +215,12 @@ public class SkeletonPruner {
         int x, y, i, length;
         int width = processor.getWidth(), height = processor.getHeight();
         Rectangle region;
-        ByteStatistics stats = new ByteStatistics(processor);
-        int size = stats.histogram[FOREGROUND];
-        short xPixels[] = new short[size];
-        short yPixels[] = new short[size];
+        if (codes == null || !codes.describes(processor)) {
+            codes = new NeighbourhoodCodes(processor, foreground);
+        }
+        int size = codes.getCount();
+        short xPixels[] = new short[size + 1];
+        short yPixels[] = new short[size + 1];
         boolean change = false;
         int rx = 0;
         int ry = 0;
@@ -164,27 +229,28 @@ public class SkeletonPruner {
             ry = roi.y;
         }
 
-        processor.setColor(BACKGROUND);
+        processor.setColor(background);
         for (y = 1; y < height - 1; y++) {
             for (x = 1; x < width - 1; x++) {
                 /*
                  * Image scanned until foreground pixel located
                  */
-                if (processor.getPixelValue(x, y) == FOREGROUND) {
+                if (codes.isForeground(y * width + x)) {
                     /*
                      * Tracing of branches commences from end-points only
                      */
-                    if (loops || SkeletonProcessor.isEndPoint(x, y, processor, BACKGROUND)) {
+                    if (loops || codes.isEndPoint(y * width + x)) {
                         length = 0;
                         xPixels[length] = (short) x;
                         yPixels[length] = (short) y;
                         /*
                          * Tracing of the skeleton proceeds until the end of the
-                         * current branch is reached
+                         * current branch is reached. The trace is held in the
+                         * local pixel arrays.
                          */
                         do {
                             length++;
-                        } while (SkeletonProcessor.getNextPixel(xPixels, yPixels, processor, length, FOREGROUND));
+                        } while (getNextPixel(xPixels, yPixels, length));
                         if (!removeAll && length >= size) {
                             return change;
                         }
@@ -193,18 +259,8 @@ public class SkeletonPruner {
                              * If a branch-point was located, the branch-point
                              * is not removed with the branch
                              */
-                            if (length >= 0 && xPixels[length] == SkeletonProcessor.BRANCH
-                                    && yPixels[length] == SkeletonProcessor.BRANCH) {
+                            if (xPixels[length] == BRANCH && yPixels[length] == BRANCH) {
                                 length--;
-                            } /*
-                             * If the path has 'double-backed', it is assumed
-                             * a branch-point has been missed. A number of pixels
-                             * are removed from the path to ensure a branch-point
-                             * is not inadvertently removed (potentially causing
-                             * a break in the skeleton).
-                             */ else if ((xPixels[length] < SkeletonProcessor.BRANCH)
-                                    && (yPixels[length] < SkeletonProcessor.BRANCH)) {
-                                length += xPixels[length];
                             }
                             for (i = length - 1; i >= 0; i--) {
                                 drawPixel(processor, xPixels[i], yPixels[i]);
@@ -241,46 +297,180 @@ public class SkeletonPruner {
         return change;
     }
 
-    public short[][] traceBranch(ImageProcessor processor, int x0, int y0, ArrayList<Node> nodes, int maxBranchLength) {
-        int length = 0;
-        short xPixels[] = new short[maxBranchLength];
-        short yPixels[] = new short[maxBranchLength];
+    /*
+     * Extends the trace held in xPixels and yPixels, the last pixel of which
+     * is at length - 1, by one pixel. The next pixel is a skeleton neighbour
+     * of the last that is not among the three pixels before it. If the last
+     * pixel is a branch-point other than the first, the trace ends and is
+     * terminated by a BRANCH marker. Returns false once the trace has ended.
+     */
+    private boolean getNextPixel(short[] xPixels, short[] yPixels, int length) {
+        if (length >= xPixels.length - 1) {
+            return false;
+        }
+        int width = codes.getWidth();
+        int cx = xPixels[length - 1], cy = yPixels[length - 1];
+        int current = cy * width + cx;
+        if (length > 1 && codes.isBranchPoint(current)) {
+            xPixels[length] = BRANCH;
+            yPixels[length] = BRANCH;
+            return false;
+        }
+        int code = codes.getCode(current);
+        for (int k : TRACE_ORDER) {
+            if ((code & (1 << k)) == 0) {
+                continue;
+            }
+            int nx = cx + NeighbourhoodCodes.DX[k], ny = cy + NeighbourhoodCodes.DY[k];
+            boolean traced = false;
+            for (int j = Math.max(0, length - 4); j < length - 1 && !traced; j++) {
+                traced = xPixels[j] == nx && yPixels[j] == ny;
+            }
+            if (!traced) {
+                xPixels[length] = (short) nx;
+                yPixels[length] = (short) ny;
+                return true;
+            }
+        }
+        xPixels[length] = 0;
+        yPixels[length] = 0;
+        return false;
+    }
 
-        processor.setColor(BACKGROUND);
-        /*
-                 * Image scanned until foreground pixel located
-         */
-        if (processor.getPixelValue(x0, y0) == FOREGROUND) {
-            /*
-                     * Tracing of branches commences from end-points only
-             */
-            if (SkeletonProcessor.isEndPoint(x0, y0, processor, BACKGROUND)) {
-                xPixels[length] = (short) x0;
-                yPixels[length] = (short) y0;
+    /**
+     * Removes all branches from a skeleton structure that are less than the
+     * specified minimum length, operating on a graph of the skeleton. This
+     * reproduces the behaviour of repeated calls to
+     * {@link #pruneBranches(ImageProcessor, boolean)}: in each round,
+     * end-points are visited in raster order and a branch is measured from the
+     * end-point up to and including the first pixel of the vertex at its other
+     * end. When a junction is left with only two branches, they are merged, so
+     * that later measurements pass through it. The image is only modified
+     * once all rounds are complete.
+     * <p>
+     * The output therefore differs from that of
+     * {@link #pruneBranches(ImageProcessor, boolean)} in the following cases:
+     * <ul>
+     * <li>Clustered junctions. When scanning, residual points around a
+     * junction are removed as soon as a branch is removed from it, so the
+     * branches traced later in the same scan may be a pixel or two shorter
+     * where they pass within one pixel of that junction. Here the residual
+     * points are only removed at the end. A branch whose length is within a
+     * pixel or two of the minimum may therefore be kept by one mode and
+     * removed by the other. The remaining residual points may also differ.</li>
+     * </ul>
+     * Where junctions are separated by more than the 3 x 3 neighbourhood
+     * cleaned around each, the two modes measure
+     * every branch identically. Because the outputs can differ, scanning
+     * remains the default.
+     *
+     * @param processor image containing the skeleton structure
+     * @return true if at least one branch has been removed, false otherwise
+     */
+    public boolean pruneGraph(ImageProcessor processor) {
+        int width = processor.getWidth(), height = processor.getHeight();
+        if (codes == null || !codes.describes(processor)) {
+            codes = new NeighbourhoodCodes(processor, foreground);
+        }
+        SkeletonGraph graph = new SkeletonGraph(codes);
+        ArrayList<Integer> removed = new ArrayList();
+        ArrayList<Integer> sites = new ArrayList();
+        int rx = 0;
+        int ry = 0;
+        if (roi != null) {
+            rx = roi.x;
+            ry = roi.y;
+        }
+        boolean change = true, anyChange = false;
+        PriorityQueue<SkeletonGraph.Vertex> ends = new PriorityQueue(11,
+                Comparator.comparingInt(SkeletonGraph.Vertex::getIndex));
+        while (change) {
+            change = false;
+            int size = graph.getPixelCount();
+            for (SkeletonGraph.Vertex v : graph.getVertices()) {
+                if (!v.isRemoved() && v.getType() == SkeletonGraph.END) {
+                    ends.add(v);
+                }
+            }
+            while (!ends.isEmpty()) {
+                SkeletonGraph.Vertex end = ends.poll();
+                int scan = end.getIndex();
+                int x = scan % width, y = scan / width;
                 /*
-                         * Tracing of the skeleton proceeds until the end of the
-                         * current branch is reached
+                 * Branches are traced from end-points away from the image
+                 * border only
                  */
-                do {
-//                    System.out.println(String.format("x: %d y: %d", xPixels[length], yPixels[length]));
-                    length++;
-                } while (SkeletonProcessor.getNextPixel(xPixels, yPixels, processor, length, FOREGROUND));
-                for (int i = length - 1; i >= 0; i--) {
-                    drawPixel(processor, xPixels[i], yPixels[i]);
+                if (end.isRemoved() || end.getType() != SkeletonGraph.END || end.getDegree() != 1
+                        || x < 1 || y < 1 || x >= width - 1 || y >= height - 1) {
+                    continue;
+                }
+                SkeletonGraph.Edge edge = end.getEdges().get(0);
+                SkeletonGraph.Vertex other = edge.opposite(end);
+                int[] path = edge.getPixelsFrom(end);
+                int length = end.getPixels().length + path.length + 1;
+                if (length >= size) {
+                    ends.clear();
+                    break;
+                }
+                if (length >= MIN_BRANCH_LENGTH) {
+                    int[][] branchPix = new int[length][];
+                    int j = 0;
+                    for (int p : end.getPixels()) {
+                        branchPix[j++] = new int[]{p % width + rx, p / width + ry};
+                    }
+                    for (int p : path) {
+                        branchPix[j++] = new int[]{p % width + rx, p / width + ry};
+                    }
+                    int p = other.getIndex();
+                    branchPix[j] = new int[]{p % width + rx, p / width + ry};
+                    branches.add(branchPix);
+                    continue;
+                }
+                for (int p : end.getPixels()) {
+                    removed.add(p);
                 }
-                int[] bp = SkeletonProcessor.getLatestBranchpoint();
-                if (bp != null) {
-                    drawPixel(processor, bp[0], bp[1]);
+                for (int p : path) {
+                    removed.add(p);
                 }
+                sites.add(path.length > 0 ? path[path.length - 1] : end.getIndex());
+                graph.removeVertex(end);
+                if (other.getType() == SkeletonGraph.END) {
+                    /*
+                     * An isolated branch is removed in its entirety
+                     */
+                    for (int q : other.getPixels()) {
+                        removed.add(q);
+                    }
+                    graph.removeVertex(other);
+                } else if (other.getType() == SkeletonGraph.JUNCTION) {
+                    if (other.getDegree() == 2) {
+                        graph.mergeAt(other);
+                    } else if (other.getDegree() == 1) {
+                        graph.setEndPoint(other);
+                        if (other.getIndex() > scan) {
+                            ends.add(other);
+                        }
+                    }
+                }
+                change = true;
+                anyChange = true;
+            }
+            if (change) {
+                iterations++;
             }
         }
-        short[] truncXP = new short[length];
-        short[] truncYP = new short[length];
-        for (int i = 0; i < length; i++) {
-            truncXP[i] = xPixels[i];
-            truncYP[i] = yPixels[i];
+        /*
+         * Removed branches are erased from the image in one pass, after which
+         * any residual points around the junctions they were attached to are
+         * removed.
+         */
+        for (int p : removed) {
+            codes.remove(p);
+        }
+        for (int p : sites) {
+            prunePoints(p % width, p / width, processor);
         }
-        return new short[][]{truncXP, truncYP};
+        return anyChange;
     }
 
     /**
@@ -295,7 +485,10 @@ public class SkeletonPruner {
     }
 
     void drawPixel(ImageProcessor processor, int x, int y) {
+        if (codes != null && codes.describes(processor)) {
+            codes.remove(x, y);
+            return;
+        }
         processor.drawPixel(x, y);
-//        IJ.saveAs(new ImagePlus("", processor), "PNG", "D:\\debugging\\anamorf_debug\\step_" + index++);
     }
 }
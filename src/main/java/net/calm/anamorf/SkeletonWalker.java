@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.process.ImageProcessor;
+import java.util.Arrays;
+
+/**
+ * Walks a binary skeleton once in raster order, recording its pixels and
+ * classifying them as tips or branch-points from their
+ * {@link NeighbourhoodCodes}. The length of the skeleton and its tips and
+ * branch-points are derived from this walk alone.
+ * <p>
+ * The walk does not follow the skeleton, so it cannot build a graph. The
+ * graph and the longest path are derived from a {@link SkeletonGraph}, built
+ * on first use by a second pass that traces the skeleton from the same codes,
+ * without reading the image again. A {@link SkeletonPruner} builds a graph of
+ * its own, as it operates on the skeleton before pruning, whereas a walker is
+ * normally given the pruned skeleton.
+ */
+public class SkeletonWalker {
+
+    public static final byte NONE = 0, TIP = 1, BRANCH_POINT = 2;
+
+    private final NeighbourhoodCodes codes;
+    private int[] pixels;
+    private byte[] types;
+    private SkeletonGraph graph;
+    private LongestPathFinder pathFinder;
+
+    /**
+     * @param skeleton binary image containing the skeleton
+     * @param foreground value of skeleton pixels
+     */
+    public SkeletonWalker(ImageProcessor skeleton, int foreground) {
+        this(new NeighbourhoodCodes(skeleton, foreground));
+    }
+
+    /**
+     * Walks the skeleton described by <i>codes</i>.
+     */
+    public SkeletonWalker(NeighbourhoodCodes codes) {
+        this.codes = codes;
+        int n = codes.getWidth() * codes.getHeight();
+        int length = 0;
+        pixels = new int[64];
+        types = new byte[64];
+        for (int i = 0; i < n; i++) {
+            if (!codes.isForeground(i)) {
+                continue;
+            }
+            if (length >= pixels.length) {
+                pixels = Arrays.copyOf(pixels, 2 * pixels.length);
+                types = Arrays.copyOf(types, 2 * types.length);
+            }
+            if (codes.isEndPoint(i)) {
+                types[length] = TIP;
+            } else if (codes.isBranchPoint(i)) {
+                types[length] = BRANCH_POINT;
+            }
+            pixels[length++] = i;
+        }
+        pixels = Arrays.copyOf(pixels, length);
+        types = Arrays.copyOf(types, length);
+    }
+
+    /**
+     * @return the number of skeleton pixels.
+     */
+    public int getLength() {
+        return pixels.length;
+    }
+
+    /**
+     * @return the indices of the skeleton pixels, in raster order.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return the classification of each skeleton pixel as a {@link #TIP}, a
+     * {@link #BRANCH_POINT} or neither, in the same order as
+     * {@link #getPixels()}
+     */
+    public byte[] getTypes() {
+        return types;
+    }
+
+    /**
+     * @return the graph of the skeleton, constructed on first use from the
+     * neighbourhood codes used during the walk.
+     */
+    public SkeletonGraph getGraph() {
+        if (graph == null) {
+            graph = new SkeletonGraph(codes);
+        }
+        return graph;
+    }
+
+    /**
+     * Finds the longest shortest path between two end-points of the skeleton.
+     *
+     * @param xOffset added to the x-coordinates of the output
+     * @param yOffset added to the y-coordinates of the output
+     * @return the coordinates of the pixels along the path, or null if there
+     * is no such path
+     * @see LongestPathFinder
+     */
+    public int[][] getLongestPath(int xOffset, int yOffset) {
+        pathFinder = new LongestPathFinder(getGraph());
+        return pathFinder.findLongestPath(xOffset, yOffset);
+    }
+
+    /**
+     * @return the search performed by the last call to
+     * {@link #getLongestPath(int, int)}, or null if there has been none.
+     */
+    public LongestPathFinder getPathFinder() {
+        return pathFinder;
+    }
+
+    public int getWidth() {
+        return codes.getWidth();
+    }
+
+    public int getHeight() {
+        return codes.getHeight();
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf.params;
+
+import ij.process.AutoThresholder;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * An immutable, validated snapshot of the parameters of a run, compiled once
+ * from a {@link DefaultParams} before any image is analysed. Every value is
+ * parsed and checked here, so analysis never parses a property string, and
+ * changes to the properties after compilation - by a macro or by another run
+ * in the same JVM - have no effect on a run already in progress.
+ * <p>
+ * Parameters that are only used when a feature is enabled are only validated
+ * when that feature is enabled; otherwise they take their default values.
+ */
+public final class AnalysisConfig {
+
+    private static final DefaultParams DEFAULTS = new DefaultParams();
+
+    public final String imageFormat;
+    /**
+     * Microns per pixel.
+     */
+    public final double imageResolution;
+    public final double minBranchLength;
+    public final double maxCircularity;
+    public final double minArea;
+    public final int curveWindow;
+    /**
+     * The curvature window as specified, used in the curvature column heading.
+     */
+    public final String curveWindowText;
+
+    public final boolean projectedArea;
+    public final boolean circularity;
+    public final boolean meanBranchLength;
+    public final boolean totalLength;
+    public final boolean numEndpoints;
+    public final boolean numBranchpoints;
+    public final boolean fourierFractalDimension;
+    public final boolean boxCountingFractalDimension;
+    public final boolean lacunarity;
+    public final boolean curvature;
+
+    public final boolean preProcess;
+    public final boolean lightBackground;
+    /**
+     * Radius of the noise reduction filter, in pixels.
+     */
+    public final double noiseFilterRadius;
+    public final boolean removeBackground;
+    /**
+     * Radius of the background filter, in pixels.
+     */
+    public final double backgroundFilterRadius;
+    public final boolean autoThreshold;
+    public final AutoThresholder.Method thresholdMethod;
+    public final int thresholdLevel;
+    public final boolean separateTouching;
+
+    public final boolean createMasks;
+    public final boolean excludeEdges;
+    public final boolean wholeImage;
+    public final boolean outputCurvatureValues;
+    /**
+     * See {@link DefaultParams#GRAPH_PRUNING_LABEL} for how the output differs
+     * from that of scanning.
+     */
+    public final boolean graphPruning;
+
+    public final int threads;
+    public final int objectThreads;
+    /**
+     * Threads for each stage of the pipeline, or null to use the defaults.
+     */
+    private final int[] stageThreads;
+    public final int stageQueueCapacity;
+    /**
+     * Memory budget in megabytes, or zero to use the default.
+     */
+    public final long memoryBudget;
+
+    public final String resultsFormat;
+    public final long watchStableMillis;
+    public final boolean recursive;
+    public final String fileFilter;
+    /**
+     * One of {@link #LOG_LEVELS}.
+     */
+    public final String logLevel;
+
+    /**
+     * Valid values of {@link DefaultParams#LOG_LEVEL_LABEL}, from least to
+     * most verbose.
+     */
+    public static final String[] LOG_LEVELS = {"ERROR", "WARN", "INFO", "DEBUG", "TRACE"};
+
+    private AnalysisConfig(Properties props) {
+        imageFormat = get(props, DefaultParams.IMAGE_FORMAT_LABEL).trim();
+        imageResolution = getPositive(props, DefaultParams.IMAGE_RES_LABEL);
+        minBranchLength = getNonNegative(props, DefaultParams.MIN_BRANCH_LABEL);
+        maxCircularity = getNonNegative(props, DefaultParams.MAX_CIRC_LABEL);
+        minArea = getNonNegative(props, DefaultParams.MIN_AREA_LABEL);
+
+        projectedArea = getBoolean(props, DefaultParams.PROJ_AREA_LABEL);
+        circularity = getBoolean(props, DefaultParams.CIRC_LABEL);
+        meanBranchLength = getBoolean(props, DefaultParams.MEAN_BRANCH_LABEL);
+        totalLength = getBoolean(props, DefaultParams.TOT_LENGTH_LABEL);
+        numEndpoints = getBoolean(props, DefaultParams.NUM_END_LABEL);
+        numBranchpoints = getBoolean(props, DefaultParams.NUM_BRANCH_LABEL);
+        fourierFractalDimension = getBoolean(props, DefaultParams.FOURIER_FRAC_LABEL);
+        boxCountingFractalDimension = getBoolean(props, DefaultParams.BOX_COUNT_LABEL);
+        lacunarity = getBoolean(props, DefaultParams.LAC_LABEL);
+        curvature = getBoolean(props, DefaultParams.CURVE_LABEL);
+
+        Properties curveProps = curvature ? props : DEFAULTS;
+        curveWindowText = get(curveProps, DefaultParams.CURVE_WIN_LABEL);
+        curveWindow = (int) Math.round(getPositive(curveProps, DefaultParams.CURVE_WIN_LABEL));
+
+        preProcess = getBoolean(props, DefaultParams.PRE_PROCESS_LABEL);
+        Properties preProps = preProcess ? props : DEFAULTS;
+        lightBackground = getBoolean(preProps, DefaultParams.LIGHT_BACK_LABEL);
+        noiseFilterRadius = getNonNegative(preProps, DefaultParams.NOISE_RED_LABEL) / imageResolution;
+        removeBackground = getBoolean(preProps, DefaultParams.REMOVE_BACK_LABEL);
+        backgroundFilterRadius = getNonNegative(removeBackground ? preProps : DEFAULTS, DefaultParams.BACK_FILT_LABEL) / imageResolution;
+        autoThreshold = getBoolean(preProps, DefaultParams.AUTO_THRESH_LABEL);
+        String method = get(autoThreshold ? preProps : DEFAULTS, DefaultParams.THRESH_METH_LABEL).trim();
+        try {
+            thresholdMethod = AutoThresholder.Method.valueOf(method);
+        } catch (IllegalArgumentException e) {
+            throw invalid(DefaultParams.THRESH_METH_LABEL, method);
+        }
+        thresholdLevel = getInt(autoThreshold ? DEFAULTS : preProps, DefaultParams.THRESH_LEV_LABEL, 0);
+        separateTouching = getBoolean(preProps, DefaultParams.SEPARATE_TOUCHING_LABEL);
+
+        createMasks = getBoolean(props, DefaultParams.CREATE_MASK_LABEL);
+        excludeEdges = getBoolean(props, DefaultParams.EXCLUDE_EDGE_LABEL);
+        wholeImage = getBoolean(props, DefaultParams.WHOLE_IMAGE_LABEL);
+        outputCurvatureValues = getBoolean(props, DefaultParams.OUTPUT_CURVE_LABEL);
+        graphPruning = getBoolean(props, DefaultParams.GRAPH_PRUNING_LABEL);
+
+        threads = getInt(props, DefaultParams.THREADS_LABEL, 1);
+        objectThreads = getInt(props, DefaultParams.OBJECT_THREADS_LABEL, 1);
+        stageThreads = getStageThreads(props);
+        stageQueueCapacity = getInt(props, DefaultParams.STAGE_QUEUE_LABEL, 1);
+        memoryBudget = getInt(props, DefaultParams.MEMORY_BUDGET_LABEL, 0);
+
+        String format = get(props, DefaultParams.RESULTS_FORMAT_LABEL).trim().toUpperCase();
+        if (!(format.equals("CSV") || format.equals("NDJSON"))) {
+            throw invalid(DefaultParams.RESULTS_FORMAT_LABEL, format);
+        }
+        resultsFormat = format;
+        watchStableMillis = Math.round(1000.0 * getNonNegative(props, DefaultParams.WATCH_STABLE_LABEL));
+        recursive = getBoolean(props, DefaultParams.RECURSIVE_LABEL);
+        fileFilter = get(props, DefaultParams.FILE_FILTER_LABEL).trim();
+        String level = get(props, DefaultParams.LOG_LEVEL_LABEL).trim().toUpperCase();
+        if (!Arrays.asList(LOG_LEVELS).contains(level)) {
+            throw invalid(DefaultParams.LOG_LEVEL_LABEL, level);
+        }
+        logLevel = level;
+    }
+
+    /**
+     * Compiles <i>props</i>, taking the default value of any parameter that
+     * is not specified.
+     *
+     * @throws IllegalArgumentException naming the first parameter with an
+     * invalid value
+     */
+    public static AnalysisConfig compile(Properties props) {
+        return new AnalysisConfig(props == null ? DEFAULTS : props);
+    }
+
+    /**
+     * @return the requested outputs, in the order of the output flags defined
+     * in {@link net.calm.anamorf.Batch_Analyser}
+     */
+    public boolean[] getOptions() {
+        return new boolean[]{projectedArea, circularity, meanBranchLength, totalLength,
+            numEndpoints, numBranchpoints, fourierFractalDimension,
+            boxCountingFractalDimension, lacunarity, curvature};
+    }
+
+    /**
+     * @return the number of threads for each stage of the pipeline, or
+     * <i>defaults</i> if none were specified
+     */
+    public int[] getStageThreads(int[] defaults) {
+        return stageThreads == null ? defaults : stageThreads.clone();
+    }
+
+    private static String get(Properties props, String label) {
+        String value = props.getProperty(label);
+        return value != null ? value : DEFAULTS.getProperty(label, "");
+    }
+
+    private static boolean getBoolean(Properties props, String label) {
+        return Boolean.parseBoolean(get(props, label).trim());
+    }
+
+    private static double getDouble(Properties props, String label) {
+        String value = get(props, label).trim();
+        try {
+            double d = Double.parseDouble(value);
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                throw invalid(label, value);
+            }
+            return d;
+        } catch (NumberFormatException e) {
+            throw invalid(label, value);
+        }
+    }
+
+    private static double getPositive(Properties props, String label) {
+        double d = getDouble(props, label);
+        if (!(d > 0.0)) {
+            throw invalid(label, get(props, label));
+        }
+        return d;
+    }
+
+    private static double getNonNegative(Properties props, String label) {
+        double d = getDouble(props, label);
+        if (d < 0.0) {
+            throw invalid(label, get(props, label));
+        }
+        return d;
+    }
+
+    private static int getInt(Properties props, String label, int min) {
+        String value = get(props, label).trim();
+        try {
+            int i = Integer.parseInt(value);
+            if (i < min) {
+                throw invalid(label, value);
+            }
+            return i;
+        } catch (NumberFormatException e) {
+            throw invalid(label, value);
+        }
+    }
+
+    private static int[] getStageThreads(Properties props) {
+        String value = get(props, DefaultParams.STAGE_THREADS_LABEL).trim();
+        if (value.isEmpty()) {
+            return null;
+        }
+        String[] values = value.split(",");
+        if (values.length != 5) {
+            throw invalid(DefaultParams.STAGE_THREADS_LABEL, value);
+        }
+        int[] threads = new int[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                threads[i] = Integer.parseInt(values[i].trim());
+                if (threads[i] < 1) {
+                    throw invalid(DefaultParams.STAGE_THREADS_LABEL, value);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw invalid(DefaultParams.STAGE_THREADS_LABEL, value);
+        }
+        return threads;
+    }
+
+    private static IllegalArgumentException invalid(String label, String value) {
+        return new IllegalArgumentException(String.format("Invalid value for %s: '%s'", label, value));
+    }
+}
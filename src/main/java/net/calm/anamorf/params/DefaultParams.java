@@ -57,6 +57,24 @@ public class DefaultParams extends Properties {
     public static final String WHOLE_IMAGE_LABEL = "Treat Whole Image as One Object";
     public static final String OUTPUT_CURVE_LABEL = "Output Curvature Values";
     public static final String INPUT_DIR = "Input Directory";
+    public static final String THREADS_LABEL = "Number of Threads";
+    public static final String OBJECT_THREADS_LABEL = "Number of Object Threads";
+    /**
+     * If true, skeletons are pruned using a graph built once rather than by
+     * repeatedly scanning the image. Branch counts, end-point counts and
+     * total lengths can differ slightly from those of scanning - branches
+     * close to the minimum length near clustered junctions may be kept
+     * instead of removed.
+     */
+    public static final String GRAPH_PRUNING_LABEL = "Graph-Based Skeleton Pruning";
+    public static final String RESULTS_FORMAT_LABEL = "Results Format";
+    public static final String WATCH_STABLE_LABEL = "Watched File Stability Period (s)";
+    public static final String RECURSIVE_LABEL = "Search Subdirectories";
+    public static final String FILE_FILTER_LABEL = "File Filter";
+    public static final String STAGE_THREADS_LABEL = "Pipeline Stage Threads";
+    public static final String STAGE_QUEUE_LABEL = "Pipeline Queue Capacity";
+    public static final String MEMORY_BUDGET_LABEL = "Memory Budget (MB)";
+    public static final String LOG_LEVEL_LABEL = "Log Level";
 
     public DefaultParams() {
         this.setProperty(IMAGE_FORMAT_LABEL, "PNG");
@@ -91,6 +109,17 @@ public class DefaultParams extends Properties {
         this.setProperty(WHOLE_IMAGE_LABEL, "false");
         this.setProperty(OUTPUT_CURVE_LABEL, "false");
         this.setProperty(INPUT_DIR, System.getProperty("user.dir"));
+        this.setProperty(THREADS_LABEL, "1");
+        this.setProperty(OBJECT_THREADS_LABEL, "1");
+        this.setProperty(GRAPH_PRUNING_LABEL, "false");
+        this.setProperty(RESULTS_FORMAT_LABEL, "CSV");
+        this.setProperty(WATCH_STABLE_LABEL, "2.0");
+        this.setProperty(RECURSIVE_LABEL, "false");
+        this.setProperty(FILE_FILTER_LABEL, "");
+        this.setProperty(STAGE_THREADS_LABEL, "");
+        this.setProperty(STAGE_QUEUE_LABEL, "2");
+        this.setProperty(MEMORY_BUDGET_LABEL, "0");
+        this.setProperty(LOG_LEVEL_LABEL, "INFO");
     }
 
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link FolderWatcher} reports images in subdirectories,
+ * including those created while watching, only when watching recursively.
+ */
+public class FolderWatcherTest {
+
+    private static final FilenameFilter PNG = (dir, name) -> name.endsWith(".png");
+    private static final long TIMEOUT = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecursiveWatchReportsSubdirectories() throws IOException, InterruptedException {
+        File root = folder.getRoot();
+        File results = new File(root, "results");
+        write(root, "a.png");
+        write(root, "sub/b.png");
+        write(root, "results/output.png");
+        try (FolderWatcher watcher = new FolderWatcher(root, true, PNG, results, 0)) {
+            assertEquals(Arrays.asList("a.png", "sub/b.png"), pollFor(watcher, 2));
+            write(root, "sub/c.png");
+            write(root, "new/deeper/d.png");
+            write(root, "results/later.png");
+            ArrayList<String> found = pollFor(watcher, 2);
+            Collections.sort(found);
+            assertEquals(Arrays.asList("new/deeper/d.png", "sub/c.png"), found);
+            write(root, "new/deeper/e.png");
+            assertEquals(Arrays.asList("new/deeper/e.png"), pollFor(watcher, 1));
+            assertEquals(0, watcher.poll(200).size());
+        }
+    }
+
+    @Test
+    public void testNonRecursiveWatchIgnoresSubdirectories() throws IOException, InterruptedException {
+        File root = folder.getRoot();
+        write(root, "a.png");
+        write(root, "sub/b.png");
+        try (FolderWatcher watcher = new FolderWatcher(root, false, PNG, null, 0)) {
+            assertEquals(Arrays.asList("a.png"), pollFor(watcher, 1));
+            write(root, "sub/c.png");
+            write(root, "new/d.png");
+            write(root, "e.png");
+            assertEquals(Arrays.asList("e.png"), pollFor(watcher, 1));
+            assertEquals(0, watcher.poll(200).size());
+        }
+    }
+
+    private static void write(File root, String name) throws IOException {
+        File file = new File(root, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), new byte[]{1});
+    }
+
+    /*
+     * Polls until at least count images have been reported or the timeout
+     * expires
+     */
+    private static ArrayList<String> pollFor(FolderWatcher watcher, int count) throws IOException, InterruptedException {
+        ArrayList<String> found = new ArrayList();
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (found.size() < count && System.currentTimeMillis() < end) {
+            found.addAll(watcher.poll(100));
+        }
+        return found;
+    }
+}
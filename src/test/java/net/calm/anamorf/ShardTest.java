@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the claiming and reclaiming of image leases by leasing shards.
+ */
+public class ShardTest {
+
+    private static final String IMAGE = "sub/image.png";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLeaseIsHeldByFirstShard() throws IOException {
+        File results = folder.getRoot();
+        assertTrue(Shard.leasing("a", false).claim(IMAGE, results));
+        assertFalse(Shard.leasing("b", false).claim(IMAGE, results));
+        assertTrue(Shard.leasing("a", false).claim(IMAGE, results));
+        assertEquals("a", new String(Files.readAllBytes(getLease(results).toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUnfinishedLeaseIsReclaimed() throws IOException {
+        File results = folder.getRoot();
+        assertTrue(Shard.leasing("a", false).claim(IMAGE, results));
+        assertTrue(Shard.leasing("b", true).claim(IMAGE, results));
+        assertFalse(Shard.leasing("a", false).claim(IMAGE, results));
+        assertEquals(Collections.singletonMap(IMAGE, "b"), Shard.findUnfinishedLeases(results, Collections.emptySet()));
+    }
+
+    @Test
+    public void testCompletedLeaseIsNotReclaimed() throws IOException {
+        File results = folder.getRoot();
+        Shard owner = Shard.leasing("a", false);
+        assertTrue(owner.claim(IMAGE, results));
+        File directory = owner.getDirectory(results);
+        directory.mkdirs();
+        try (BatchJournal journal = new BatchJournal(new File(directory, BatchJournal.FILENAME))) {
+            journal.open(false);
+            journal.record(new BatchJournal.Entry(IMAGE));
+        }
+        assertFalse(Shard.leasing("b", true).claim(IMAGE, results));
+        assertTrue(Shard.findUnfinishedLeases(results, Arrays.asList(IMAGE)).isEmpty());
+    }
+
+    @Test
+    public void testEmptyLeaseIsReclaimed() throws IOException {
+        File results = folder.getRoot();
+        File lease = getLease(results);
+        lease.getParentFile().mkdirs();
+        assertTrue(lease.createNewFile());
+        Map<String, String> unfinished = Shard.findUnfinishedLeases(results, Collections.emptySet());
+        assertEquals(Collections.singletonMap(IMAGE, ""), unfinished);
+        assertFalse(Shard.leasing("b", false).claim(IMAGE, results));
+        assertTrue(Shard.leasing("b", true).claim(IMAGE, results));
+        assertEquals("b", new String(Files.readAllBytes(lease.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private File getLease(File results) {
+        return new File(results, Shard.LEASE_DIRECTORY + File.separator + IMAGE + ".lease");
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.process.ByteProcessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that {@link SkeletonPruner} instances used concurrently produce
+ * exactly the same output as when used one at a time. Half of the skeletons
+ * have an inverted LUT, so that pruners with different foreground values run
+ * side by side.
+ */
+public class SkeletonPrunerConcurrencyTest {
+
+    private static final int SKELETONS = 24, THREADS = 8, REPEATS = 4;
+    private static final int SIZE = 256, STEPS = 60, MAX_TIPS = 64, MIN_BRANCH_LENGTH = 10;
+
+    @Test
+    public void testParallelScanningMatchesSequential() throws Exception {
+        checkParallelMatchesSequential(false);
+    }
+
+    @Test
+    public void testParallelGraphPruningMatchesSequential() throws Exception {
+        checkParallelMatchesSequential(true);
+    }
+
+    private void checkParallelMatchesSequential(boolean graphPruning) throws Exception {
+        ByteProcessor[] skeletons = new ByteProcessor[SKELETONS];
+        byte[][] expected = new byte[SKELETONS][];
+        boolean pruned = false;
+        for (int i = 0; i < SKELETONS; i++) {
+            skeletons[i] = createSkeleton(i, i % 2 == 1);
+            expected[i] = prune(skeletons[i], graphPruning);
+            pruned |= !Arrays.equals(expected[i], (byte[]) skeletons[i].getPixels());
+        }
+        /*
+         * Scanning only removes branches starting from pixels classified as
+         * end-points by IAClassLibrary - without them there is nothing to
+         * compare
+         */
+        assumeTrue("No skeleton was modified by pruning", pruned);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            ArrayList<Future<byte[]>> results = new ArrayList();
+            for (int r = 0; r < REPEATS; r++) {
+                for (int i = 0; i < SKELETONS; i++) {
+                    ByteProcessor skeleton = skeletons[i];
+                    results.add(pool.submit(() -> prune(skeleton, graphPruning)));
+                }
+            }
+            for (int j = 0; j < results.size(); j++) {
+                assertArrayEquals(String.format("Skeleton %d", j % SKELETONS),
+                        expected[j % SKELETONS], results.get(j).get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static byte[] prune(ByteProcessor skeleton, boolean graphPruning) {
+        return (byte[]) new SkeletonPruner(MIN_BRANCH_LENGTH, skeleton, null, false, false, graphPruning)
+                .getPrunedImage().getPixels();
+    }
+
+    /*
+     * Grows a branching random walk from the centre of a blank image and
+     * skeletonises it. The same seed always gives the same skeleton.
+     */
+    static ByteProcessor createSkeleton(long seed, boolean invertedLut) {
+        Random random = new Random(seed);
+        ByteProcessor image = new ByteProcessor(SIZE, SIZE);
+        image.setValue(255);
+        image.fill();
+        image.setValue(0);
+        ArrayList<double[]> tips = new ArrayList();
+        tips.add(new double[]{SIZE / 2.0, SIZE / 2.0, 2.0 * Math.PI * random.nextDouble()});
+        for (int step = 0; step < STEPS && !tips.isEmpty(); step++) {
+            ArrayList<double[]> growing = new ArrayList();
+            for (double[] tip : tips) {
+                double heading = tip[2] + 0.3 * random.nextGaussian();
+                double x = tip[0] + 3.0 * Math.cos(heading);
+                double y = tip[1] + 3.0 * Math.sin(heading);
+                if (x < 2.0 || y < 2.0 || x > SIZE - 3.0 || y > SIZE - 3.0) {
+                    continue;
+                }
+                image.drawLine((int) Math.round(tip[0]), (int) Math.round(tip[1]),
+                        (int) Math.round(x), (int) Math.round(y));
+                growing.add(new double[]{x, y, heading});
+                if (growing.size() < MAX_TIPS && random.nextDouble() < 0.08) {
+                    double angle = 0.5 + random.nextDouble();
+                    growing.add(new double[]{x, y, random.nextBoolean() ? heading + angle : heading - angle});
+                }
+            }
+            tips = growing;
+        }
+        image.skeletonize();
+        if (invertedLut) {
+            image.invert();
+            image.invertLut();
+        }
+        return image;
+    }
+}
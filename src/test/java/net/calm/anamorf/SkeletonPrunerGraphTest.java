@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2026 David Barry <david.barry at crick dot ac dot uk>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.calm.anamorf;
+
+import ij.process.ByteProcessor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the output of graph-based pruning on small skeletons of known shape.
+ * Skeletons are drawn in black on a white background, with a minimum branch
+ * length of 10 pixels.
+ */
+public class SkeletonPrunerGraphTest {
+
+    private static final int WIDTH = 64, HEIGHT = 48, MIN_BRANCH_LENGTH = 10;
+    private static final int FOREGROUND = 0, BACKGROUND = 255;
+
+    @Test
+    public void testShortSpurIsRemoved() {
+        ByteProcessor skeleton = createLine(5, 55, 20);
+        drawSpur(skeleton, 30, 21, 24);
+        ByteProcessor pruned = prune(skeleton);
+        for (int y = 22; y <= 24; y++) {
+            assertEquals(String.format("Spur pixel (30, %d)", y), BACKGROUND, pruned.getPixel(30, y));
+        }
+        assertEquals(FOREGROUND, pruned.getPixel(5, 20));
+        assertEquals(FOREGROUND, pruned.getPixel(55, 20));
+    }
+
+    @Test
+    public void testLongSpurIsKept() {
+        ByteProcessor skeleton = createLine(5, 55, 20);
+        drawSpur(skeleton, 30, 21, 40);
+        ByteProcessor pruned = prune(skeleton);
+        for (int y = 22; y <= 40; y++) {
+            assertEquals(String.format("Spur pixel (30, %d)", y), FOREGROUND, pruned.getPixel(30, y));
+        }
+        assertEquals(FOREGROUND, pruned.getPixel(5, 20));
+        assertEquals(FOREGROUND, pruned.getPixel(55, 20));
+    }
+
+    /*
+     * Each arm of the line is shorter than the minimum branch length, but once
+     * the spur above it is removed the junction is merged and the line is
+     * measured as a whole, so it is kept.
+     */
+    @Test
+    public void testJunctionIsMergedAfterSpurRemoval() {
+        ByteProcessor skeleton = createLine(23, 37, 20);
+        drawSpur(skeleton, 30, 16, 19);
+        ByteProcessor pruned = prune(skeleton);
+        for (int y = 16; y <= 18; y++) {
+            assertEquals(String.format("Spur pixel (30, %d)", y), BACKGROUND, pruned.getPixel(30, y));
+        }
+        for (int x = 23; x <= 37; x++) {
+            if (x < 29 || x > 31) {
+                assertEquals(String.format("Line pixel (%d, 20)", x), FOREGROUND, pruned.getPixel(x, 20));
+            }
+        }
+    }
+
+    private static ByteProcessor prune(ByteProcessor skeleton) {
+        return new SkeletonPruner(MIN_BRANCH_LENGTH, skeleton, null, false, false, true).getPrunedImage();
+    }
+
+    private static ByteProcessor createLine(int x0, int x1, int y) {
+        ByteProcessor image = new ByteProcessor(WIDTH, HEIGHT);
+        image.setValue(BACKGROUND);
+        image.fill();
+        for (int x = x0; x <= x1; x++) {
+            image.putPixel(x, y, FOREGROUND);
+        }
+        return image;
+    }
+
+    private static void drawSpur(ByteProcessor image, int x, int y0, int y1) {
+        for (int y = y0; y <= y1; y++) {
+            image.putPixel(x, y, FOREGROUND);
+        }
+    }
+}